@@ -0,0 +1,134 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.DSC.crypto.ChannelKeys;
+import com.DSC.crypto.Cipher;
+import com.DSC.crypto.CipherSuite;
+
+/**
+ * Encrypting and decrypting a message with each cipher suite across message
+ * sizes. The output buffers are allocated once so the allocations measured
+ * are those of the cipher.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark
+{
+    @Param({ "AES-GCM", "ChaCha20-Poly1305", "Grain128-HMAC-MD5" })
+    private String suiteName;
+    
+    @Param({ "16", "1024", "65536", "1048576" })
+    private int size;
+    
+    private CipherSuite suite;
+    private ChannelKeys keys;
+    private byte[] IV;
+    private long counter;
+    private byte[] plainText;
+    private byte[][] decryptIV = new byte[2][];
+    private byte[][] cipherText = new byte[2][];
+    private int next;
+    private byte[] out;
+    
+    
+    @Setup
+    public void setup() throws InvalidCipherTextException
+    {
+        suite = Cipher.getSuite(suiteName);
+        if (suite == null)
+        {
+            throw new IllegalStateException(suiteName + " is not available on this JVM");
+        }
+        
+        keys = new ChannelKeys(Fixtures.bytes(16), Fixtures.PASSPHRASE, suite);
+        IV = Fixtures.bytes(12);
+        plainText = Fixtures.bytes(size);
+        out = new byte[size + CipherSuite.TAG_SIZE];
+        
+        for (int i = 0; i < cipherText.length; ++i)
+        {
+            nextIV();
+            decryptIV[i] = IV.clone();
+            cipherText[i] = new byte[size + CipherSuite.TAG_SIZE];
+            suite.encrypt(keys, IV, 0, plainText, 0, size, cipherText[i], 0);
+        }
+    }
+    
+    
+    /**
+     * Encrypts the message, the counter in the IV is incremented for each
+     * message as done by the send controller, an AEAD cipher refuses to
+     * reuse an IV.
+     */
+    @Benchmark
+    public byte[] encrypt()
+    {
+        nextIV();
+        suite.encrypt(keys, IV, 0, plainText, 0, size, out, 0);
+        return out;
+    }
+    
+    
+    /**
+     * Decrypts the messages in turn, the ChaCha20-Poly1305 cipher of the JDK
+     * fails to decrypt a second message with the same IV, which a receiver
+     * never does as replayed messages are dropped.
+     */
+    @Benchmark
+    public byte[] decrypt() throws InvalidCipherTextException
+    {
+        next ^= 1;
+        suite.decrypt(keys, decryptIV[next], 0, cipherText[next], 0, size, out, 0);
+        return out;
+    }
+    
+    
+    private void nextIV()
+    {
+        long counter = ++this.counter;
+        for (int i = IV.length - 1; i >= IV.length - 8; --i)
+        {
+            IV[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+}
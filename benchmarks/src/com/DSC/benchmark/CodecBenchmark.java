@@ -0,0 +1,121 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.DSC.crypto.Cipher;
+import com.DSC.crypto.CipherSuite;
+import com.DSC.crypto.ECDSA;
+import com.DSC.crypto.ECKey;
+import com.DSC.crypto.ECGKeyUtil;
+import com.DSC.message.AbstractMessageFactory;
+import com.DSC.message.EncryptedMessage;
+import com.DSC.message.MessageType;
+import com.DSC.message.SecureMessage;
+
+/**
+ * Encoding and decoding messages in the binary wire format, an encrypted 
+ * message across message sizes and an authentication request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+    @Param({ "16", "1024", "65536", "1048576" })
+    private int size;
+    
+    private SecureMessage authRequest;
+    private byte[] encodedAuthRequest;
+    private byte[] encodedMessage;
+    
+    
+    @Setup
+    public void setup()
+    {
+        ECKey key = Fixtures.keyPair();
+        authRequest = AbstractMessageFactory.createAuthRequest(
+                ECGKeyUtil.encodePubKey(key.getPublic()), null, System.currentTimeMillis(), 0L,
+                ECDSA.signAuthRequest(key.getPrivate(), key.getPublic(), Fixtures.PASSPHRASE, (byte) 0));
+        encodedAuthRequest = AbstractMessageFactory.encodeMessage(authRequest);
+        
+        EncryptedMessage msg = encryptedMessage();
+        System.arraycopy(Fixtures.bytes(size + CipherSuite.TAG_SIZE), 0, msg.getBuffer(), 
+                msg.getMessageOffset(), size + CipherSuite.TAG_SIZE);
+        encodedMessage = AbstractMessageFactory.encodeMessage(msg);
+    }
+    
+    
+    /**
+     * Allocates the encrypted message buffer and encodes it, as done by the
+     * send controller around encrypting the message into the buffer
+     */
+    @Benchmark
+    public byte[] encodeEncryptedMessage()
+    {
+        return AbstractMessageFactory.encodeMessage(encryptedMessage());
+    }
+    
+    
+    @Benchmark
+    public SecureMessage decodeEncryptedMessage()
+    {
+        return AbstractMessageFactory.decodeMessage(encodedMessage, 0, encodedMessage.length);
+    }
+    
+    
+    @Benchmark
+    public byte[] encodeAuthRequest()
+    {
+        return AbstractMessageFactory.encodeMessage(authRequest);
+    }
+    
+    
+    @Benchmark
+    public SecureMessage decodeAuthRequest()
+    {
+        return AbstractMessageFactory.decodeMessage(encodedAuthRequest, 0, encodedAuthRequest.length);
+    }
+    
+    
+    private EncryptedMessage encryptedMessage()
+    {
+        return AbstractMessageFactory.createMessage(MessageType.ENCRYPTED_MESSAGE, 
+                Cipher.getDefaultSuite().getId(), 1L, size);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.DSC.crypto.ECDSA;
+import com.DSC.crypto.ECKey;
+import com.DSC.crypto.SignedDigest;
+import com.DSC.message.AuthRequest;
+
+/**
+ * Signing and verifying each of the handshake messages, and verifying a 
+ * batch of authentication requests as the verification queue does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ECDSABenchmark
+{
+    private static final int BATCH_SIZE = 16;
+    private static final int MEMBERS = 8;
+    
+    private CipherParameters priKey;
+    private CipherParameters pubKey;
+    private CipherParameters authKey;
+    private byte[] symmetricKey;
+    private long timestamp;
+    private long[] keyIds;
+    private byte[][] symmetricKeys;
+    private long[] excludedIds;
+    
+    private BigInteger[] authRequestSig;
+    private BigInteger[] authAcknowledgeSig;
+    private BigInteger[] keySig;
+    private BigInteger[] authKeySig;
+    private BigInteger[] rekeySig;
+    private List<SignedDigest> batch;
+    
+    
+    @Setup
+    public void setup()
+    {
+        ECKey key = Fixtures.keyPair();
+        priKey = key.getPrivate();
+        pubKey = key.getPublic();
+        authKey = Fixtures.keyPair().getPublic();
+        symmetricKey = Fixtures.bytes(64);
+        timestamp = System.currentTimeMillis();
+        
+        keyIds = new long[MEMBERS];
+        symmetricKeys = new byte[MEMBERS][];
+        for (int i = 0; i < MEMBERS; ++i)
+        {
+            keyIds[i] = i;
+            symmetricKeys[i] = Fixtures.bytes(64);
+        }
+        excludedIds = new long[0];
+        
+        authRequestSig = ECDSA.signAuthRequest(priKey, pubKey, Fixtures.PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE);
+        authAcknowledgeSig = ECDSA.signAuthAcknowledge(priKey, pubKey, authKey, Fixtures.PASSPHRASE);
+        keySig = ECDSA.signKey(priKey, pubKey, symmetricKey, Fixtures.PASSPHRASE);
+        authKeySig = ECDSA.signAuthKey(priKey, pubKey, authKey, symmetricKey, Fixtures.PASSPHRASE);
+        rekeySig = ECDSA.signRekey(priKey, pubKey, timestamp, keyIds, symmetricKeys, excludedIds, 
+                Fixtures.PASSPHRASE);
+        
+        /* Each request in the batch is signed by a different member */
+        batch = new ArrayList<SignedDigest>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; ++i)
+        {
+            ECKey member = Fixtures.keyPair();
+            BigInteger[] sig = ECDSA.signAuthRequest(member.getPrivate(), member.getPublic(), 
+                    Fixtures.PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE);
+            batch.add(ECDSA.authRequest(member.getPublic(), Fixtures.PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE, sig));
+        }
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signAuthRequest()
+    {
+        return ECDSA.signAuthRequest(priKey, pubKey, Fixtures.PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyAuthRequest()
+    {
+        return ECDSA.verifyAuthRequest(pubKey, Fixtures.PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE, authRequestSig);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signAuthAcknowledge()
+    {
+        return ECDSA.signAuthAcknowledge(priKey, pubKey, authKey, Fixtures.PASSPHRASE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyAuthAcknowledge()
+    {
+        return ECDSA.verifyAuthAcknowledge(pubKey, authKey, Fixtures.PASSPHRASE, authAcknowledgeSig);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signKeyExchange()
+    {
+        return ECDSA.signKeyExchange(priKey, pubKey, Fixtures.PASSPHRASE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyKeyExchange()
+    {
+        return ECDSA.verifyKeyExchange(pubKey, Fixtures.PASSPHRASE, authRequestSig);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signKey()
+    {
+        return ECDSA.signKey(priKey, pubKey, symmetricKey, Fixtures.PASSPHRASE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyKey()
+    {
+        return ECDSA.verifyKey(pubKey, symmetricKey, Fixtures.PASSPHRASE, keySig);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signAuthKey()
+    {
+        return ECDSA.signAuthKey(priKey, pubKey, authKey, symmetricKey, Fixtures.PASSPHRASE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyAuthKey()
+    {
+        return ECDSA.verifyAuthKey(pubKey, authKey, symmetricKey, Fixtures.PASSPHRASE, authKeySig);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] signRekey()
+    {
+        return ECDSA.signRekey(priKey, pubKey, timestamp, keyIds, symmetricKeys, excludedIds, 
+                Fixtures.PASSPHRASE);
+    }
+    
+    
+    @Benchmark
+    public boolean verifyRekey()
+    {
+        return ECDSA.verifyRekey(pubKey, timestamp, keyIds, symmetricKeys, excludedIds, 
+                Fixtures.PASSPHRASE, rekeySig);
+    }
+    
+    
+    /**
+     * Verifies a batch of authentication requests, divide by the batch size
+     * to compare against a single verification
+     */
+    @Benchmark
+    public boolean[] verifyBatch()
+    {
+        return ECDSA.verify(batch);
+    }
+}
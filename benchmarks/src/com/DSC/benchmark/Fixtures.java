@@ -0,0 +1,64 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.util.Random;
+
+import com.DSC.crypto.ECKey;
+
+/**
+ * Fixed inputs shared by the benchmarks, the data is generated from a fixed
+ * seed so that every run measures the same inputs.
+ */
+final class Fixtures
+{
+    static final String PASSPHRASE = "benchmark";
+    
+    private static final Random random = new Random(0x44534321L);
+    
+    
+    private Fixtures()
+    {
+    }
+    
+    
+    /**
+     * Returns the number of bytes given filled from the fixed seed
+     */
+    static synchronized byte[] bytes(int size)
+    {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+    
+    
+    /**
+     * Generates a new key pair on the curve used by the channel
+     */
+    static ECKey keyPair()
+    {
+        ECKey key = new ECKey();
+        key.init();
+        return key;
+    }
+}
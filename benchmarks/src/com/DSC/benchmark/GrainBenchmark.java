@@ -0,0 +1,139 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.DSC.crypto.Cipher;
+import com.DSC.crypto.ECKey;
+
+/**
+ * Encrypting and decrypting a message with the Grain-128 stream cipher alone
+ * across message sizes, and encrypting the network key for a member.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrainBenchmark
+{
+    @Param({ "16", "1024", "65536", "1048576" })
+    private int size;
+    
+    private byte[] keyBytes;
+    private KeyParameter key;
+    private byte[] IV;
+    private byte[] plainText;
+    private byte[] cipherText;
+    private byte[] out;
+    
+    private ECKey sender;
+    private ECKey receiver;
+    private byte[] networkKey;
+    private byte[] encryptedKey;
+    
+    
+    @Setup
+    public void setup() throws Exception
+    {
+        keyBytes = Fixtures.bytes(16);
+        key = new KeyParameter(keyBytes);
+        IV = Fixtures.bytes(12);
+        plainText = Fixtures.bytes(size);
+        cipherText = new byte[size];
+        out = new byte[size];
+        Cipher.encryptMsg(key, IV, 0, plainText, 0, size, cipherText, 0);
+        
+        sender = Fixtures.keyPair();
+        receiver = Fixtures.keyPair();
+        networkKey = Fixtures.bytes(32);
+        encryptedKey = Cipher.encryptKey(sender.getPrivate(), receiver.getPublic(), 
+                Fixtures.PASSPHRASE, networkKey);
+    }
+    
+    
+    @Benchmark
+    public byte[] encryptMsg()
+    {
+        Cipher.encryptMsg(key, IV, 0, plainText, 0, size, out, 0);
+        return out;
+    }
+    
+    
+    @Benchmark
+    public byte[] decryptMsg()
+    {
+        Cipher.decryptMsg(key, IV, 0, cipherText, 0, size, out, 0);
+        return out;
+    }
+    
+    
+    /**
+     * Encrypts into a new array with a new key parameter for each message, to
+     * compare against encrypting into the message buffer
+     */
+    @Benchmark
+    public byte[] encryptMsgCopy()
+    {
+        return Cipher.encryptMsg(keyBytes, IV, plainText);
+    }
+    
+    
+    @Benchmark
+    public byte[] decryptMsgCopy()
+    {
+        return Cipher.decryptMsg(keyBytes, IV, cipherText);
+    }
+    
+    
+    /**
+     * The key is encrypted once for each member, the cost does not depend on
+     * the message size
+     */
+    @Benchmark
+    public byte[] encryptKey() throws Exception
+    {
+        return Cipher.encryptKey(sender.getPrivate(), receiver.getPublic(), Fixtures.PASSPHRASE, networkKey);
+    }
+    
+    
+    @Benchmark
+    public byte[] decryptKey() throws Exception
+    {
+        return Cipher.decryptKey(receiver.getPrivate(), sender.getPublic(), Fixtures.PASSPHRASE, encryptedKey);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.benchmark;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.DSC.crypto.ChannelKeys;
+import com.DSC.crypto.Cipher;
+import com.DSC.crypto.CipherSuite;
+
+/**
+ * Generating and verifying the HMAC of a message with the keys of the
+ * channel, as done by the Grain-128 cipher suite, compared to the baseline
+ * HMAC that was keyed with the passphrase for every message and carried as a
+ * BigInteger.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HMACBenchmark
+{
+    @Param({ "16", "1024", "65536" })
+    private int size;
+    
+    private ChannelKeys keys;
+    private byte[] data;
+    private byte[] HMAC;
+    private byte[] out;
+    private BigInteger[] baselineHMAC;
+    
+    
+    @Setup
+    public void setup()
+    {
+        keys = new ChannelKeys(Fixtures.bytes(16), Fixtures.PASSPHRASE, 
+                Cipher.getSuite("Grain128-HMAC-MD5"));
+        out = new byte[CipherSuite.TAG_SIZE];
+        
+        /* The baseline fails to verify some tags, use data with a tag it verifies */
+        boolean valid;
+        do
+        {
+            data = Fixtures.bytes(size);
+            baselineHMAC = baselineGenerateHMAC(Fixtures.PASSPHRASE, data);
+            try
+            {
+                valid = baselineVerifyHMAC(Fixtures.PASSPHRASE, baselineHMAC, data);
+            }
+            catch (InvalidCipherTextException e)
+            {
+                valid = false;
+            }
+        }
+        while (! valid);
+        HMAC = keys.generateHMAC(data);
+    }
+    
+    
+    @Benchmark
+    public byte[] generateHMAC()
+    {
+        keys.generateHMAC(data, 0, data.length, out, 0);
+        return out;
+    }
+    
+    
+    @Benchmark
+    public boolean verifyHMAC() throws InvalidCipherTextException
+    {
+        return keys.verifyHMAC(data, 0, data.length, HMAC, 0);
+    }
+    
+    
+    @Benchmark
+    public BigInteger[] baselineGenerateHMAC()
+    {
+        return baselineGenerateHMAC(Fixtures.PASSPHRASE, data);
+    }
+    
+    
+    @Benchmark
+    public boolean baselineVerifyHMAC() throws InvalidCipherTextException
+    {
+        return baselineVerifyHMAC(Fixtures.PASSPHRASE, baselineHMAC, data);
+    }
+    
+    
+    /**
+     * The HMAC previously generated by Cipher.generateHMAC, a new HMAC keyed
+     * with the passphrase for every message
+     */
+    private static BigInteger[] baselineGenerateHMAC(String passphrase, byte[] data)
+    {
+        HMac hmac = new HMac(new MD5Digest());
+        byte[] buf = new byte[hmac.getMacSize()];
+        BigInteger[] hmacBigInt = new BigInteger[1];
+        
+        /* Initializes and generate HMAC for message */
+        hmac.init(new KeyParameter(passphrase.getBytes()));
+        hmac.update(data, 0, data.length);
+        hmac.doFinal(buf, 0);
+        
+        /* Convert the HMAC to a big integer representation */
+        hmacBigInt[0] = new BigInteger(buf);
+        return hmacBigInt;
+    }
+    
+    
+    /**
+     * The HMAC previously verified by Cipher.verifyHMAC
+     */
+    private static boolean baselineVerifyHMAC(String passphrase, BigInteger[] HMAC, byte[] data) 
+            throws InvalidCipherTextException
+    {
+        HMac hmac = new HMac(new MD5Digest());
+        byte[] expHMAC = new byte[hmac.getMacSize()];
+        byte[] recHMAC = new byte[hmac.getMacSize()];
+        
+        /* Initializes and generate the expected HMAC for message */
+        hmac.init(new KeyParameter(passphrase.getBytes()));
+        hmac.update(data, 0, data.length);
+        hmac.doFinal(expHMAC, 0);
+        
+        /* Convert the received HMAC to a byte representation */
+        recHMAC = HMAC[0].toByteArray();
+        
+        /* Compare the HMAC received to the expected HMAC */
+        if (Arrays.equals(expHMAC, recHMAC))
+        {
+            return true;
+        }
+        else
+        {
+            throw new InvalidCipherTextException("Message HMAC failed!");
+        }
+    }
+}
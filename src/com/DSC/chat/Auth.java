@@ -0,0 +1,120 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.chat;
+
+import java.util.regex.Pattern;
+
+import com.DSC.controller.SendController;
+import com.DSC.message.MessageType;
+import com.DSC.utility.ChannelSession;
+import com.DSC.utility.PendingRequest;
+
+public class Auth extends CommandParser
+{
+    private PendingRequest request;
+    private String choice;
+    private boolean permanent;
+    private ChannelSession session;
+
+    public static Auth parse(String entry)
+    {
+        entry = rtrim(entry);
+        String[] elements = entry.split(" ");
+        
+        if(elements.length == 1)
+        {
+            if(Pattern.compile(COMMAND_INDICATOR + "auth",
+                    Pattern.CASE_INSENSITIVE).matcher(elements[0]).matches())
+            {
+                return new Auth();
+            }
+        }
+        return null;
+    }
+
+    
+    /**
+     * Applies the decision for the pending request, trusting the member and
+     * announcing the authentication, or rejecting or ignoring the sender
+     */
+    @Override
+    public boolean executeCommand() 
+    {
+        /* The request may have already been decided */
+        if (this.request == null || ! this.session.getPendingRequests().remove(this.request))
+        {
+            return false;
+        }
+        
+        if (this.choice.equalsIgnoreCase("t"))
+        {
+            /* Update list of trusted members */
+            this.session.getTrustedMembers().putIfAbsent(this.request.getPeerKey(), this.request.getSrc());
+            
+            SendController sendController = new SendController(this.session);
+            if (this.request.isCombinedHandshake())
+            {
+                /* Send the key to the member along with the acknowledgement */
+                sendController.send(MessageType.AUTH_KEY, this.request.getPublicKey(), this.request.getSrc());
+            }
+            else
+            {
+                /* Await the key exchange request from the member, before it can arrive */
+                byte[] publicKey = this.request.getPeerKey().getEncoded();
+                this.session.getHandshakes().acknowledged(publicKey);
+                
+                /* Send authenticated acknowledgement msg */
+                if (! sendController.send(MessageType.AUTH_ACKNOWLEDGE, this.request.getPublicKey(), null))
+                {
+                    this.session.getHandshakes().cancel(publicKey);
+                }
+            }
+        }
+        else if (this.choice.equalsIgnoreCase("i") && this.permanent)
+        {
+            this.session.getBlacklist().add(this.request.getSrc());
+            this.session.getKeyBlacklist().add(this.request.getPeerKey().getEncoded());
+        }
+        
+        return true;
+    }
+    
+    public void setSession(ChannelSession session)
+    {
+        this.session = session;
+    }
+    
+    public void setRequest(PendingRequest request)
+    {
+        this.request = request;
+    }
+    
+    public void setChoice(String choice)
+    {
+        this.choice = choice;
+    }
+    
+    public void setPermanent(boolean permanent)
+    {
+        this.permanent = permanent;
+    }
+}
@@ -26,13 +26,18 @@ import java.util.regex.Pattern;
 
 import org.bouncycastle.crypto.engines.ISAACEngine;
 
+import com.DSC.crypto.Cipher;
+import com.DSC.crypto.CipherSuite;
 import com.DSC.crypto.ISAACRandomGenerator;
-import com.DSC.utility.ProgramState;
+import com.DSC.crypto.KeyRatchet;
+import com.DSC.utility.ChannelSession;
 
 public class Create extends CommandParser {
 
 	private String channel;
 	private String passphrase;
+	private CipherSuite suite;
+	private ChannelSession session;
 	
 	public static Create parse(String entry) {
 		entry = rtrim(entry);
@@ -68,12 +73,13 @@ public class Create extends CommandParser {
 		ISAACRandomGenerator isaac = new ISAACRandomGenerator(new ISAACEngine());
 		isaac.init(seed);
 		isaac.nextBytes(symmetricKey);
-		ProgramState.symmetricKey = symmetricKey;
-		ProgramState.passphrase = this.passphrase;
+		this.session.setPassphrase(this.passphrase);
+		this.session.setKeys(new KeyRatchet(symmetricKey, KeyRatchet.currentEpoch(), this.passphrase, 
+		        this.suite != null ? this.suite : Cipher.getDefaultSuite()));
 		
 		// Creator of channel is authenticated and has created the key
-		ProgramState.AUTHENTICATED = true;
-		ProgramState.KEY_RECEIVED = true;
+		this.session.setAuthenticated(true);
+		this.session.setKeyReceived(true);
 		
 		return true;
 	}
@@ -87,4 +93,31 @@ public class Create extends CommandParser {
 	{
 		this.passphrase = passphrase;
 	}
+	
+	public void setSession(ChannelSession session)
+	{
+		this.session = session;
+	}
+	
+	/**
+	 * Sets the cipher suite used by the channel
+	 * @param name The name of the suite, the default suite is used if empty
+	 * @return False if the suite is not supported
+	 */
+	public boolean setSuite(String name)
+	{
+		if (name == null || name.trim().isEmpty())
+		{
+			this.suite = Cipher.getDefaultSuite();
+			return true;
+		}
+		
+		this.suite = Cipher.getSuite(name.trim());
+		return this.suite != null;
+	}
+	
+	public CipherSuite getSuite()
+	{
+		return this.suite;
+	}
 }
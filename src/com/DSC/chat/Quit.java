@@ -44,9 +44,9 @@ public class Quit extends CommandParser {
 
 	@Override
 	public boolean executeCommand() {
-		if (ProgramState.channel != null)
+		if (ProgramState.session != null)
         {
-			ProgramState.channel.close();
+			ProgramState.session.close();
 			return true;
         }
 		return false;
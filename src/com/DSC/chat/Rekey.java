@@ -0,0 +1,89 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.chat;
+
+import java.util.regex.Pattern;
+
+import com.DSC.controller.SendController;
+import com.DSC.message.MessageCodec;
+import com.DSC.message.MessageType;
+import com.DSC.utility.ChannelSession;
+
+public class Rekey extends CommandParser
+{
+    private ChannelSession session;
+    private byte[] removed;
+
+    public static Rekey parse(String entry)
+    {
+        entry = rtrim(entry);
+        String[] elements = entry.split(" ");
+        
+        if(elements.length == 1)
+        {
+            if(Pattern.compile(COMMAND_INDICATOR + "rekey",
+                    Pattern.CASE_INSENSITIVE).matcher(elements[0]).matches())
+            {
+                return new Rekey();
+            }
+        }
+        return null;
+    }
+
+    
+    /**
+     * Replaces the network key, the new key is sent to every trusted member
+     * in a single message. Members ignored permanently do not receive it, 
+     * and the member removed is no longer trusted and is excluded from the 
+     * key by every member.
+     */
+    @Override
+    public boolean executeCommand() 
+    {
+        /* Only a member holding the network key can replace it */
+        if (this.session == null || ! this.session.isKeyReceived())
+        {
+            return false;
+        }
+        
+        if (this.removed != null)
+        {
+            this.session.getTrustedMembers().remove(MessageCodec.getKeyId(this.removed));
+        }
+        
+        SendController sendController = new SendController(this.session);
+        return sendController.send(MessageType.REKEY, null, null);
+    }
+    
+    public void setSession(ChannelSession session)
+    {
+        this.session = session;
+    }
+    
+    /**
+     * @param removed The public key of the member to remove, null to keep every member
+     */
+    public void setRemoved(byte[] removed)
+    {
+        this.removed = removed;
+    }
+}
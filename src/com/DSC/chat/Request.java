@@ -23,11 +23,12 @@ package com.DSC.chat;
 
 import java.util.regex.Pattern;
 
-import com.DSC.utility.ProgramState;
+import com.DSC.utility.ChannelSession;
 
 public class Request extends CommandParser
 {	
 	private String passphrase;
+	private ChannelSession session;
 
 	public static Request parse(String entry)
 	{
@@ -49,7 +50,7 @@ public class Request extends CommandParser
 	@Override
 	public boolean executeCommand()
 	{      
-		ProgramState.passphrase = this.passphrase;
+		this.session.setPassphrase(this.passphrase);
 		return true;
 	}
 	
@@ -57,4 +58,9 @@ public class Request extends CommandParser
 	{
 		this.passphrase = passphrase;
 	}
+	
+	public void setSession(ChannelSession session)
+	{
+		this.session = session;
+	}
 }
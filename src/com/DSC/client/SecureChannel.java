@@ -21,54 +21,86 @@
  */
 package com.DSC.client;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.security.SecureRandom;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.net.ntp.NTPUDPClient;
 import org.apache.commons.net.ntp.TimeInfo;
-import org.bouncycastle.crypto.engines.ISAACEngine;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.jgroups.Address;
-import org.jgroups.JChannel;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.format.DateTimeFormat;
 
+import com.DSC.chat.Auth;
 import com.DSC.chat.CommandParser;
 import com.DSC.chat.Create;
 import com.DSC.chat.Join;
 import com.DSC.chat.Nick;
 import com.DSC.chat.Quit;
+import com.DSC.chat.Rekey;
 import com.DSC.chat.Request;
-import com.DSC.controller.ReceiveController;
 import com.DSC.controller.SendController;
+import com.DSC.crypto.Cipher;
 import com.DSC.crypto.ECKey;
-import com.DSC.crypto.ISAACRandomGenerator;
 import com.DSC.message.MessageType;
+import com.DSC.utility.ChannelSession;
 import com.DSC.utility.Colour;
+import com.DSC.utility.ConsoleInput;
+import com.DSC.utility.PendingRequest;
 import com.DSC.utility.ProgramState;
-import com.google.common.collect.ConcurrentHashMultiset;
+import com.DSC.utility.TrustedMember;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class SecureChannel
 {
     private static final String NTP_SERVER = "time-a.nist.gov";   
-    private static ReceiveController receiveController;
-    private static SendController sendController;
+    
+    /* Time to wait to be authenticated and then for the network key, in milliseconds */
+    private static final long AUTHENTICATION_TIMEOUT = Long.getLong("dsc.authenticationTimeout", 20000);
+    private static final long KEY_TIMEOUT = Long.getLong("dsc.keyTimeout", 10000);
+    
+    /* The key is sent with the acknowledgement unless the classic handshake is used */
+    private static final boolean CLASSIC_HANDSHAKE = Boolean.getBoolean("dsc.classicHandshake");
+    
+    /**
+     * Returns the session for the channel specified, a new session is created
+     * if not already in the channel
+     * @throws Exception
+     */
+    private static ChannelSession getSession(String name) throws Exception
+    {
+        if (ProgramState.session != null && name.equals(ProgramState.session.getName()))
+        {
+            return ProgramState.session;
+        }
+        return new ChannelSession(ChannelSession.createChannel(), ProgramState.publicKey, ProgramState.privateKey);
+    }
+    
     
     /**
-     * Joins the JGroups channel specified
+     * Joins the JGroups channel specified using the session, leaving the 
+     * current channel
+     * @return False if already in the channel
      * @throws Exception
      */
-    private static void join(String name) throws Exception
+    private static boolean join(ChannelSession session, String name) throws Exception
     {
-        ProgramState.channel = new JChannel();
-        ProgramState.channel.setDiscardOwnMessages(true);
-        ProgramState.channel.setReceiver(receiveController);
-        ProgramState.channel.connect(name);
+        if (session == ProgramState.session)
+        {
+            return false;
+        }
+        
+        if (ProgramState.session != null)
+        {
+            ProgramState.session.close();
+        }
+        session.connect(name);
+        ProgramState.session = session;
+        return true;
     }
     
     
@@ -96,13 +128,25 @@ public class SecureChannel
     }
     
     /**
-     * The main eventLoop that handles the user input for the IRC client
+     * Formats a line of chat for display with the time and nickname
+     */
+    private static String formatLine(String line)
+    {
+        return Colour.BLUE + ProgramState.fmt.print(DateTimeUtils.currentTimeMillis()) + Colour.RESET + 
+                " " + ProgramState.nick + "> " + line;
+    }
+    
+    
+    /**
+     * The main eventLoop that handles the user input for the IRC client, the
+     * loop waits on the input thread and handles each line as it is entered
      * @throws InterruptedException 
      */
     private static void eventLoop() throws InterruptedException
     {
         clearScreen();
-        ProgramState.in = new BufferedReader(new InputStreamReader(System.in));
+        ProgramState.in = new ConsoleInput(System.in);
+        ProgramState.in.start();
         
         while (true)
         {
@@ -110,14 +154,17 @@ public class SecureChannel
             {
                 System.out.flush();
                 
-                /* Don't display the username prompt when authenticating */
-                if (! ProgramState.AUTHENTICATION_DECISION)
-                {
-                    System.out.print(ProgramState.nick + "> ");
-                }
+                System.out.print(ProgramState.nick + "> ");
                 
                 String line = ProgramState.in.readLine();
                 
+                /* Leave the channel once the input is closed */
+                if (line == null)
+                {
+                    new Quit().executeCommand();
+                    break;
+                }
+                
                 if (CommandParser.isCommand(line))
                 {
                 	Nick nick;
@@ -125,6 +172,8 @@ public class SecureChannel
                 	Create create;
                 	Join join;
                 	Request request;
+                	Auth auth;
+                	Rekey rekey;
                 	
                 	if ((nick = Nick.parse(line)) != null)
 	                {
@@ -147,17 +196,26 @@ public class SecureChannel
                 		String channelName = ProgramState.in.readLine();
                 		System.out.print("> Enter the channel passphrase: ");
                 		String passphrase = ProgramState.in.readLine();
+                		System.out.print("> Enter the cipher suite (" + Cipher.getSuiteNames() + ") [" 
+                		        + Cipher.getDefaultSuite().getName() + "]: ");
+                		String suite = ProgramState.in.readLine();
+                		ChannelSession session = getSession(channelName);
                 		create.setChannel(channelName);
                 		create.setPassphrase(passphrase);
+                		create.setSession(session);
                 		
-                		if (create.executeCommand())
+                		if (! create.setSuite(suite))
                 		{
-                			if (ProgramState.channel == null || !ProgramState.channel.equals(channelName))
+                		    System.out.println(Colour.RED + "> Cipher suite " + suite + " is not supported." + Colour.RESET);
+                		}
+                		else if (create.executeCommand())
+                		{
+                			if (join(session, channelName))
                 			{
-                			    join(channelName);    
                                 clearScreen();
                                 
-                			    System.out.println(Colour.GREEN + "> Channel " + channelName + " created successfully." + Colour.RESET);
+                			    System.out.println(Colour.GREEN + "> Channel " + channelName + " created successfully using " 
+                			            + create.getSuite().getName() + "." + Colour.RESET);
                 			}
                 		}
                 		else
@@ -174,9 +232,8 @@ public class SecureChannel
                         
                         if (join.executeCommand())
                         {                            
-                            if (ProgramState.channel == null || ! ProgramState.channel.equals(channelName))
+                            if (join(getSession(channelName), channelName))
                             {
-                                join(channelName);                                
                                 clearScreen();
                                 
                                 System.out.println(Colour.YELLOW + "> Joined channel: " + channelName + ", but not yet authenticated!" + Colour.RESET);
@@ -190,7 +247,8 @@ public class SecureChannel
                 	else if ((request = Request.parse(line)) != null)
 	                {
                 	    /* Check that they have first joined a channel */
-                	    if (ProgramState.channel == null)
+                	    ChannelSession session = ProgramState.session;
+                	    if (session == null)
                 	    {
                 	        System.out.println(Colour.RED + "> Error, you must join a channel first." + Colour.RESET);
                 	        continue;
@@ -199,71 +257,195 @@ public class SecureChannel
                 		System.out.print("> Enter authentication: ");
                 		String passphrase = ProgramState.in.readLine();
                 		request.setPassphrase(passphrase);
+                		request.setSession(session);
                 		
                 		if (request.executeCommand())
                 		{                		
 	                		System.out.println("> Signing key...");	                		
 	                		System.out.println("> Requesting access...");
 	                		
-		                    /* Send out the request to join */
-		                    sendController.send(MessageType.AUTH_REQUEST, null, null);
-		                    
-		                    /* Wait maximum of 20 seconds to see if authenticated */
-		                    for (int i = 0; (! ProgramState.AUTHENTICATED && i < 20); ++i)
+		                    /* Send out the request to join, the key is requested as soon as authenticated */
+		                    SendController sendController = new SendController(session);
+		                    ListenableFuture<ChannelSession> authenticated;
+		                    ListenableFuture<ChannelSession> keyReceived;
+		                    if (CLASSIC_HANDSHAKE)
+		                    {
+		                        authenticated = sendController.requestAuthentication();
+		                        keyReceived = sendController.requestKey(authenticated);
+		                    }
+		                    else
 		                    {
-		                        System.out.print(".");
-		                        Thread.sleep(1000);
+		                        /* The key is received along with the acknowledgement */
+		                        authenticated = keyReceived = sendController.requestAccess();
 		                    }
 		                    
-		                    /* Send key exchange request if authenticated */
-		                    if (ProgramState.AUTHENTICATED)
+		                    try
 		                    {
-		                        System.out.println("\n> Requesting network key...");
-		                        sendController.send(MessageType.KEY_EXCHANGE, null, null);
+		                        authenticated.get(AUTHENTICATION_TIMEOUT, TimeUnit.MILLISECONDS);
+		                        if (! keyReceived.isDone())
+		                        {
+		                            System.out.println("> Requesting network key...");
+		                        }
+		                        
+		                        keyReceived.get(KEY_TIMEOUT, TimeUnit.MILLISECONDS);
+		                        System.out.println(Colour.GREEN + "> Successfully joined channel." + Colour.RESET);
+		                    }
+		                    catch (TimeoutException e)
+		                    {
+		                        /* Stop waiting, a late acknowledgement no longer requests the key */
+		                        keyReceived.cancel(false);
 		                        
-		                        /* Wait a maximum of 10 seconds to see if key received */
-		                        for (int i = 0; (! ProgramState.KEY_RECEIVED && i < 10); ++i)
-	                            {
-	                                System.out.print(".");
-	                                Thread.sleep(1000);
-	                            }
-		                        if (ProgramState.KEY_RECEIVED)
+		                        if (session.isAuthenticated())
 		                        {
-		                            System.out.println(Colour.GREEN + "\n> Successfully joined channel." + Colour.RESET);
+		                            System.out.println(Colour.RED + "> No key received, failed to join channel." + Colour.RESET);
 		                        }
 		                        else
 		                        {
-		                            System.out.println(Colour.RED + "\n> No key received, failed to join channel." + Colour.RESET);
+		                            System.out.println(Colour.RED + "> Failed to be authenticated." + Colour.RESET);
 		                        }
 		                    }
-		                    else
-		                    {
-		                        System.out.println(Colour.RED + "\n> Failed to be authenticated." + Colour.RESET);
-		                    }
                 		}
                 		else
                 		{
                 			System.out.println(Colour.RED + "> An unspecified error occurred." + Colour.RESET);
                 		}
 	                }
+                	else if ((auth = Auth.parse(line)) != null)
+                	{
+                	    /* List the pending authentication requests */
+                	    ChannelSession session = ProgramState.session;
+                	    List<PendingRequest> requests = new ArrayList<PendingRequest>();
+                	    if (session != null)
+                	    {
+                	        requests.addAll(session.getPendingRequests());
+                	    }
+                	    if (requests.isEmpty())
+                	    {
+                	        System.out.println(Colour.YELLOW + "> No pending authentication requests." + Colour.RESET);
+                	        continue;
+                	    }
+                	    
+                	    for (int i = 0; i < requests.size(); ++i)
+                	    {
+                	        System.out.println("> [" + (i + 1) + "] " + requests.get(i).getSrc().toString());
+                	    }
+                	    
+                	    System.out.print("> Select request: ");
+                	    int index;
+                	    try
+                	    {
+                	        index = Integer.parseInt(ProgramState.in.readLine().trim()) - 1;
+                	    }
+                	    catch (NumberFormatException e)
+                	    {
+                	        index = -1;
+                	    }
+                	    
+                	    if (index < 0 || index >= requests.size())
+                	    {
+                	        System.out.println(Colour.RED + "> Invalid request selected." + Colour.RESET);
+                	        continue;
+                	    }
+                	    
+                	    System.out.println("> Signature valid for: " + requests.get(index).getSrc().toString());
+                	    System.out.print("> Trust/Reject/Ignore (T/R/I): ");
+                	    String choice = ProgramState.in.readLine();
+                	    auth.setSession(session);
+                	    auth.setRequest(requests.get(index));
+                	    auth.setChoice(choice);
+                	    
+                	    if (choice.equalsIgnoreCase("i"))
+                	    {
+                	        System.out.print("> Ignore sender permanently? (Y/N): ");
+                	        auth.setPermanent(ProgramState.in.readLine().equalsIgnoreCase("y"));
+                	    }
+                	    
+                	    if (auth.executeCommand())
+                	    {
+                	        if (choice.equalsIgnoreCase("t"))
+                	        {
+                	            System.out.println(Colour.YELLOW + "> Authenticated member announced." + Colour.RESET);
+                	        }
+                	        else if (choice.equalsIgnoreCase("i"))
+                	        {
+                	            System.out.println(Colour.YELLOW + "> Sender ignored." + Colour.RESET);
+                	        }
+                	    }
+                	    else
+                	    {
+                	        System.out.println(Colour.RED + "> Request has already been decided." + Colour.RESET);
+                	    }
+                	}
+                	else if ((rekey = Rekey.parse(line)) != null)
+                	{
+                	    /* Send a new network key to the trusted members */
+                	    ChannelSession session = ProgramState.session;
+                	    rekey.setSession(session);
+                	    
+                	    /* The new key can shut out a member, who is no longer trusted */
+                	    List<TrustedMember> members = new ArrayList<TrustedMember>();
+                	    if (session != null && session.isKeyReceived())
+                	    {
+                	        members.addAll(session.getTrustedMembers().members());
+                	    }
+                	    if (! members.isEmpty())
+                	    {
+                	        for (int i = 0; i < members.size(); ++i)
+                	        {
+                	            System.out.println("> [" + (i + 1) + "] " + members.get(i).getAddress().toString());
+                	        }
+                	        
+                	        System.out.print("> Remove member (Enter to keep every member): ");
+                	        String selected = ProgramState.in.readLine().trim();
+                	        if (! selected.isEmpty())
+                	        {
+                	            int index;
+                	            try
+                	            {
+                	                index = Integer.parseInt(selected) - 1;
+                	            }
+                	            catch (NumberFormatException e)
+                	            {
+                	                index = -1;
+                	            }
+                	            
+                	            if (index < 0 || index >= members.size())
+                	            {
+                	                System.out.println(Colour.RED + "> Invalid member selected." + Colour.RESET);
+                	                continue;
+                	            }
+                	            rekey.setRemoved(members.get(index).getPeerKey().getEncoded());
+                	        }
+                	    }
+                	    
+                	    if (rekey.executeCommand())
+                	    {
+                	        System.out.println(Colour.YELLOW + "> New channel key sent to " 
+                	                + session.getTrustedMembers().size() + " trusted members." + Colour.RESET);
+                	    }
+                	    else
+                	    {
+                	        System.out.println(Colour.RED + "> Error, you must have the channel key first." + Colour.RESET);
+                	    }
+                	}
                 }
                 else
                 {
-                    /* Authentication prompt */
-                    if (ProgramState.AUTHENTICATION_DECISION)
+                    ChannelSession session = ProgramState.session;
+                    if (session != null && session.isAuthenticated())
                     {
-                    	ProgramState.symbol.setInputReady(line);
-                    }
-                    else if (ProgramState.AUTHENTICATED)
-                    {
-                        String message = Colour.BLUE + ProgramState.fmt.print(DateTimeUtils.currentTimeMillis()) + Colour.RESET + 
-                                " " + ProgramState.nick + "> " + line;
+                        StringBuilder message = new StringBuilder(formatLine(line));
                         
-                        /* Send the encrypted message to each trusted contact */
-                        for (Address dest : ProgramState.trustedKeys.values())
+                        /* Lines pasted together are sent as a single message, up to the next command */
+                        String next;
+                        while ((next = ProgramState.in.peekPasted()) != null && ! CommandParser.isCommand(next))
                         {
-                            sendController.send(MessageType.ENCRYPTED_MESSAGE, message, dest);
+                            message.append('\n').append(formatLine(ProgramState.in.readLine()));
                         }
+                        
+                        /* Encrypt the message once and multicast it to the channel */
+                        SendController sendController = new SendController(session);
+                        sendController.send(MessageType.ENCRYPTED_MESSAGE, message.toString(), null);
                     }
                 }
             }
@@ -271,8 +453,6 @@ public class SecureChannel
             {
                 e.printStackTrace();
             }
-            
-            Thread.sleep(100);
         }
     }
     
@@ -289,17 +469,6 @@ public class SecureChannel
         key.init();
         ProgramState.publicKey = (ECPublicKeyParameters) key.getPublic();
         ProgramState.privateKey = (ECPrivateKeyParameters) key.getPrivate();
-       
-        /* Create the IV engine */
-        byte[] seed = new byte[64]; // 512 bit seed 
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(seed);
-        ProgramState.IVEngine = new ISAACRandomGenerator(new ISAACEngine());
-        ProgramState.IVEngine.init(seed);
-        
-        /* Create the blacklist and trusted contacts */
-        ProgramState.blacklist =  ConcurrentHashMultiset.create();
-        ProgramState.trustedKeys = new ConcurrentHashMap<String, Address>();
         
         /* Set the time for the client accurately using a NTP server */
         DateTimeUtils.setCurrentMillisOffset(getTimeOffset());
@@ -307,10 +476,6 @@ public class SecureChannel
         
         /* Set the default nick as anonymous */
         ProgramState.nick = "anonymous";
-        
-        /* Initialize ISAACRandomGenerator, set ProgramState.IVEngine */
-        receiveController = new ReceiveController();
-        sendController = new SendController();
 
         /* Start input event handler loop */
         eventLoop();
@@ -0,0 +1,68 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.controller;
+
+/**
+ * The reasons a message received is dropped by the message filter, before 
+ * the message is decoded.
+ */
+public enum DropReason
+{
+    /* The sender's address is blacklisted */
+    BLOCKED_ADDRESS,
+    /* The message is too short or has an unsupported version */
+    MALFORMED,
+    /* The message type is not known */
+    UNKNOWN_TYPE,
+    /* The length is not possible for the message type */
+    LENGTH,
+    /* The message is not expected in the current state */
+    STATE,
+    /* The sender's address is over its budget for handshake messages */
+    CONTROL_RATE,
+    /* The sender's address is over its budget for encrypted messages */
+    DATA_RATE,
+    /* The trusted member is over their budget for handshake messages, once verified */
+    MEMBER_RATE,
+    /* The sender's public key is blacklisted */
+    BLOCKED_KEY,
+    /* The message must come from a trusted member but the sender is not trusted */
+    UNTRUSTED,
+    /* The request's proof of work stamp is stale or not difficult enough */
+    PROOF_OF_WORK,
+    /* The request's proof of work stamp has already been spent */
+    STAMP_REPLAYED,
+    /* The signature of the request does not match the sender's public key */
+    BAD_SIGNATURE,
+    /* Too many signatures are already waiting to be verified */
+    VERIFIER_FULL,
+    /* The acknowledgement or new network key is for other members */
+    NOT_ADDRESSED,
+    /* The message is not encrypted with the cipher suite of the channel */
+    CIPHER_SUITE,
+    /* The message epoch is not within the window of network keys kept */
+    EPOCH,
+    /* The message counter has already been received from the sender */
+    REPLAYED,
+    /* The message counter is older than the sender's replay window */
+    OUT_OF_WINDOW
+}
@@ -0,0 +1,336 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.controller;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.joda.time.DateTimeUtils;
+
+import com.DSC.crypto.ECGKeyUtil;
+import com.DSC.crypto.KeyRatchet;
+import com.DSC.crypto.ProofOfWork;
+import com.DSC.message.MessageCodec;
+import com.DSC.message.MessageType;
+import com.DSC.utility.ChannelSession;
+import com.DSC.utility.ReplayWindow;
+import com.DSC.utility.TrustedMember;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cheap first stage for every message received. Messages are dropped using
+ * only the sender's address, the state of the session, and the raw bytes of
+ * the message, before the message is decoded or any cryptography is done, so
+ * that a flood of unwanted messages costs almost nothing. The rate of 
+ * messages from each sender is limited once the message is known to be 
+ * expected. The number of messages dropped for each reason is counted.
+ */
+public class MessageFilter
+{
+    /* The number of spent proof of work stamps remembered */
+    public static final int SPENT_STAMPS = Integer.getInteger("dsc.spentStamps", 65536);
+    
+    private final ChannelSession session;
+    private final byte[] publicKey;
+    private final long keyId;
+    private final AtomicLongArray dropped;
+    private final RequestDifficulty difficulty;
+    private final RateLimiter limiter;
+    private final Cache<ByteBuffer, Boolean> spentStamps;
+    
+    /**
+     * Creates a filter for the messages received by the session
+     * @param session The channel session
+     */
+    public MessageFilter(ChannelSession session)
+    {
+        this.session = session;
+        this.publicKey = ECGKeyUtil.encodePubKey(session.getPublicKey());
+        this.keyId = MessageCodec.getKeyId(this.publicKey);
+        this.dropped = new AtomicLongArray(DropReason.values().length);
+        this.difficulty = new RequestDifficulty();
+        this.limiter = new RateLimiter();
+        
+        /* A stamp is valid from STAMP_LIFETIME before its timestamp to STAMP_LIFETIME after */
+        this.spentStamps = CacheBuilder.newBuilder()
+                                .maximumSize(SPENT_STAMPS)
+                                .expireAfterWrite(2 * ProofOfWork.STAMP_LIFETIME, TimeUnit.MILLISECONDS)
+                                .build();
+    }
+    
+    
+    /**
+     * Returns true if the message should be decoded and handled
+     * @param msg The message received
+     */
+    public boolean accept(Message msg)
+    {
+        DropReason reason = check(msg.getSrc(), msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+        
+        if (reason != null)
+        {
+            dropped.incrementAndGet(reason.ordinal());
+            return false;
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Counts a message dropped by a handler after the filter accepted it
+     * @param reason The reason the message was dropped
+     */
+    void dropped(DropReason reason)
+    {
+        dropped.incrementAndGet(reason.ordinal());
+    }
+    
+    
+    /**
+     * Takes a handshake message from the budget of the trusted member, only
+     * once the signature of the message has been verified, so that a sender
+     * copying the member's public key into its messages cannot spend the 
+     * member's budget. Messages over budget are counted as dropped.
+     * @param member The trusted member that signed the message
+     * @return True if the message is within budget
+     */
+    boolean allowMember(TrustedMember member)
+    {
+        if (limiter.allowControl(member))
+        {
+            return true;
+        }
+        dropped(DropReason.MEMBER_RATE);
+        return false;
+    }
+    
+    
+    /**
+     * Returns the number of messages dropped for the reason
+     * @param reason The reason the messages were dropped
+     */
+    public long getDropped(DropReason reason)
+    {
+        return dropped.get(reason.ordinal());
+    }
+    
+    
+    /**
+     * Checks the message, cheapest checks first
+     * @return The reason to drop the message, or null if it is accepted
+     */
+    private DropReason check(Address src, byte[] buf, int offset, int length)
+    {
+        /* Ignore any messages from blocked senders */
+        if (session.getBlacklist().contains(src))
+        {
+            return DropReason.BLOCKED_ADDRESS;
+        }
+        
+        if (buf == null || length < MessageCodec.HEADER_SIZE || buf[offset] != MessageCodec.VERSION)
+        {
+            return DropReason.MALFORMED;
+        }
+        
+        MessageType type = MessageType.lookup(buf[offset + 1]);
+        if (type == null)
+        {
+            return DropReason.UNKNOWN_TYPE;
+        }
+        
+        if (! MessageCodec.isValidLength(type, length))
+        {
+            return DropReason.LENGTH;
+        }
+        
+        if (! isExpected(type))
+        {
+            return DropReason.STATE;
+        }
+        
+        /* Only the channel's cipher suite is accepted */
+        if (type == MessageType.ENCRYPTED_MESSAGE)
+        {
+            KeyRatchet keys = session.getKeys();
+            
+            if (keys == null || buf[offset + MessageCodec.SUITE_OFFSET] != keys.getSuite().getId())
+            {
+                return DropReason.CIPHER_SUITE;
+            }
+            
+            /* The keys of past epochs are erased, future epochs are only derived near the local clock */
+            if (! keys.isWithin(MessageCodec.getEpoch(buf, offset)))
+            {
+                return DropReason.EPOCH;
+            }
+            
+            /* Replays are rejected before they count against the sender's budget */
+            ReplayWindow window = session.getReplayWindow(MessageCodec.getSenderId(buf, offset));
+            if (window != null)
+            {
+                long counter = MessageCodec.getCounter(buf, offset);
+                
+                if (window.isTooOld(counter))
+                {
+                    return DropReason.OUT_OF_WINDOW;
+                }
+                if (window.isReplayed(counter))
+                {
+                    return DropReason.REPLAYED;
+                }
+            }
+            return limiter.allowData(src) ? null : DropReason.DATA_RATE;
+        }
+        
+        if (! limiter.allowControl(src))
+        {
+            return DropReason.CONTROL_RATE;
+        }
+        
+        /* Every other message carries the sender's public key */
+        int keyOffset = offset + MessageCodec.PUBLIC_KEY_OFFSET;
+        if (session.getKeyBlacklist().contains(buf, keyOffset))
+        {
+            return DropReason.BLOCKED_KEY;
+        }
+        
+        switch (type)
+        {
+            case AUTH_REQUEST:
+                DropReason stamp = checkProofOfWork(buf, offset);
+                if (stamp != null)
+                {
+                    return stamp;
+                }
+                break;
+            case KEY_EXCHANGE:
+            case KEY:
+            case REKEY:
+                TrustedMember member = session.getTrustedMembers().get(buf, keyOffset);
+                if (member == null)
+                {
+                    return DropReason.UNTRUSTED;
+                }
+                
+                /* A new network key must include a key for this member */
+                if (type == MessageType.REKEY && ! MessageCodec.hasRekeyEntry(buf, offset, length, keyId))
+                {
+                    return DropReason.NOT_ADDRESSED;
+                }
+                break;
+            case AUTH_ACKNOWLEDGE:
+            case AUTH_KEY:
+                if (! isAddressed(buf, offset + MessageCodec.AUTH_KEY_OFFSET))
+                {
+                    return DropReason.NOT_ADDRESSED;
+                }
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns true if the message type is handled in the current state of the
+     * session, the same states are checked again by each handler
+     */
+    private boolean isExpected(MessageType type)
+    {
+        switch (type)
+        {
+            case AUTH_REQUEST:
+            case KEY_EXCHANGE:
+            case ENCRYPTED_MESSAGE:
+            case REKEY:
+                return session.isAuthenticated() && session.isKeyReceived();
+            case AUTH_ACKNOWLEDGE:
+                return session.isAuthenticationRequest();
+            case AUTH_KEY:
+                return session.isAuthenticationRequest() && ! session.isKeyReceived();
+            case KEY:
+                return session.isAuthenticated() && session.isKeyExchangeRequest();
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * Checks that the request's proof of work stamp is recent, difficult 
+     * enough and has not been spent, which is checked with a single hash 
+     * before any EC math is done
+     * @return The reason to drop the request, or null if the stamp is valid
+     */
+    private DropReason checkProofOfWork(byte[] buf, int offset)
+    {
+        long now = DateTimeUtils.currentTimeMillis();
+        int required = difficulty.required(now);
+        
+        if (required == 0)
+        {
+            return null;
+        }
+        
+        long timestamp = 0;
+        for (int i = 0; i < MessageCodec.TIMESTAMP_SIZE; ++i)
+        {
+            timestamp = (timestamp << 8) | (buf[offset + MessageCodec.TIMESTAMP_OFFSET + i] & 0xFF);
+        }
+        if (Math.abs(now - timestamp) > ProofOfWork.STAMP_LIFETIME)
+        {
+            return DropReason.PROOF_OF_WORK;
+        }
+        
+        byte[] stampHash = new byte[ProofOfWork.HASH_SIZE];
+        ProofOfWork.hash(buf, offset + MessageCodec.PUBLIC_KEY_OFFSET, stampHash);
+        if (ProofOfWork.getDifficulty(stampHash) < required)
+        {
+            return DropReason.PROOF_OF_WORK;
+        }
+        
+        /* Each stamp is only accepted once, replays cost a hash rather than a verification */
+        return spentStamps.asMap().putIfAbsent(ByteBuffer.wrap(stampHash), Boolean.TRUE) == null 
+                ? null : DropReason.STAMP_REPLAYED;
+    }
+    
+    
+    /**
+     * Returns true if the authenticated key in the buffer is this member's key
+     */
+    private boolean isAddressed(byte[] buf, int offset)
+    {
+        for (int i = 0; i < publicKey.length; ++i)
+        {
+            if (publicKey[i] != buf[offset + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
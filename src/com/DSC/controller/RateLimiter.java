@@ -0,0 +1,140 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.controller;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgroups.Address;
+
+import com.DSC.utility.TokenBucket;
+import com.DSC.utility.TrustedMember;
+
+/**
+ * Limits the rate of messages from each sender, so that one noisy member 
+ * cannot slow down the channel for the rest. Each address has separate 
+ * budgets for handshake and encrypted messages, and each trusted member has
+ * a budget for the handshake messages signed with their key whatever the
+ * address, which is only taken from once the signature is verified. Messages
+ * over budget are dropped, the receiving thread never waits for the budget 
+ * of a sender.
+ */
+public class RateLimiter
+{
+    /* Idle senders are removed once there are more than this many */
+    public static final int MAX_SENDERS = 4096;
+    
+    private final ConcurrentHashMap<Address, Sender> senders;
+    
+    
+    public RateLimiter()
+    {
+        this.senders = new ConcurrentHashMap<Address, Sender>();
+    }
+    
+    
+    /**
+     * Takes a handshake message from the budget of the address
+     * @param src The address of the sender
+     * @return True if the message is within budget
+     */
+    public boolean allowControl(Address src)
+    {
+        return getSender(src).control.take(System.nanoTime());
+    }
+    
+    
+    /**
+     * Takes a handshake message from the budget of the trusted member, the
+     * signature of the message must have been verified
+     * @param member The trusted member that signed the message
+     * @return True if the message is within budget
+     */
+    public boolean allowControl(TrustedMember member)
+    {
+        return member.getControlBucket().take(System.nanoTime());
+    }
+    
+    
+    /**
+     * Takes an encrypted message from the budget of the address
+     * @param src The address of the sender
+     * @return True if the message is within budget
+     */
+    public boolean allowData(Address src)
+    {
+        return getSender(src).data.take(System.nanoTime());
+    }
+    
+    
+    /**
+     * Returns the budgets for the address, creating them for new senders
+     */
+    private Sender getSender(Address src)
+    {
+        Sender sender = senders.get(src);
+        
+        if (sender == null)
+        {
+            if (senders.size() >= MAX_SENDERS)
+            {
+                expire(System.nanoTime());
+            }
+            
+            Sender existing = senders.putIfAbsent(src, sender = new Sender());
+            if (existing != null)
+            {
+                sender = existing;
+            }
+        }
+        return sender;
+    }
+    
+    
+    /**
+     * Removes the senders with full budgets, they have nothing to remember
+     */
+    private void expire(long now)
+    {
+        Iterator<Sender> it = senders.values().iterator();
+        
+        while (it.hasNext())
+        {
+            Sender sender = it.next();
+            
+            if (sender.control.isFull(now) && sender.data.isFull(now))
+            {
+                it.remove();
+            }
+        }
+    }
+    
+    
+    /**
+     * The budgets for a sender
+     */
+    private static class Sender
+    {
+        private final TokenBucket control = TokenBucket.forControl();
+        private final TokenBucket data = TokenBucket.forData();
+    }
+}
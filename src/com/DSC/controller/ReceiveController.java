@@ -21,30 +21,91 @@
  */
 package com.DSC.controller;
 
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.bouncycastle.util.encoders.Hex;
 import org.jgroups.Address;
 import org.jgroups.Message;
 import org.jgroups.ReceiverAdapter;
+import org.joda.time.DateTimeUtils;
 
+import com.DSC.crypto.ChannelKeys;
 import com.DSC.crypto.Cipher;
 import com.DSC.crypto.ECDSA;
 import com.DSC.crypto.ECGKeyUtil;
+import com.DSC.crypto.KeyRatchet;
+import com.DSC.crypto.PeerKey;
+import com.DSC.crypto.PublicKeyCache;
+import com.DSC.message.AbstractMessageFactory;
 import com.DSC.message.AuthAcknowledge;
+import com.DSC.message.AuthKey;
 import com.DSC.message.AuthRequest;
 import com.DSC.message.EncryptedMessage;
 import com.DSC.message.Key;
 import com.DSC.message.KeyExchange;
+import com.DSC.message.MessageCodec;
 import com.DSC.message.MessageType;
+import com.DSC.message.Rekey;
 import com.DSC.message.SecureMessage;
+import com.DSC.utility.ChannelSession;
 import com.DSC.utility.Colour;
+import com.DSC.utility.PendingRequest;
 import com.DSC.utility.ProgramState;
+import com.DSC.utility.ReplayWindow;
+import com.DSC.utility.TrustedMember;
 
 public class ReceiveController extends ReceiverAdapter
 {
+    /* Minimum time between notices of invalid authentication requests */
+    private static final long INVALID_NOTICE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    
+    private final ChannelSession session;
+    private final SendController sendController;
+    private final MessageFilter filter;
+    private final VerificationQueue verifier;
+    private final long keyId;
+    
+    /* Only accessed by the verifier thread running the callbacks */
+    private long lastInvalidNotice;
+    private int invalidSinceNotice;
+    
+    /**
+     * Creates a controller that handles the messages received by the session
+     * @param session The channel session
+     */
+    public ReceiveController(ChannelSession session)
+    {
+        this.session = session;
+        this.sendController = new SendController(session);
+        this.filter = new MessageFilter(session);
+        this.verifier = session.getVerifier();
+        this.keyId = MessageCodec.getKeyId(ECGKeyUtil.encodePubKey(session.getPublicKey()));
+        this.lastInvalidNotice = System.nanoTime() - INVALID_NOTICE_INTERVAL;
+    }
+    
+    
+    /**
+     * Returns the filter applied to every message received
+     * @return The message filter
+     */
+    public MessageFilter getFilter()
+    {
+        return filter;
+    }
+    
+    
+    /**
+     * Returns the queue verifying the signatures of handshake messages
+     * @return The verification queue
+     */
+    public VerificationQueue getVerifier()
+    {
+        return verifier;
+    }
+    
+    
     /**
      * 
      * @param msg
@@ -52,8 +113,8 @@ public class ReceiveController extends ReceiverAdapter
     @Override
     public void receive(Message msg)
     {
-        /* Ignore any messages from blocked senders */
-        if (ProgramState.blacklist.contains(msg.getSrc()))
+        /* Drop unwanted messages before they are decoded */
+        if (! filter.accept(msg))
         {
             return;
         }
@@ -61,7 +122,8 @@ public class ReceiveController extends ReceiverAdapter
         /* Attempt to cast the message type and call the appropriate handler */
         try
         {
-            SecureMessage secureMsg = (SecureMessage)msg.getObject();
+            SecureMessage secureMsg = AbstractMessageFactory.decodeMessage(
+                    msg.getRawBuffer(), msg.getOffset(), msg.getLength());
         
             switch (secureMsg.getType())
             {
@@ -80,6 +142,12 @@ public class ReceiveController extends ReceiverAdapter
                 case ENCRYPTED_MESSAGE:
                     encryptedMessageHandler(secureMsg);
                     break;
+                case AUTH_KEY:
+                    authKeyHandler(secureMsg, msg.getSrc());
+                    break;
+                case REKEY:
+                    rekeyHandler(secureMsg, msg.getSrc());
+                    break;
                 default:
                     throw new IllegalArgumentException("Invalid message type!");
             }
@@ -89,6 +157,10 @@ public class ReceiveController extends ReceiverAdapter
             System.err.println("Invalid message object for type provided!");
             ce.printStackTrace();
         }
+        catch (IllegalArgumentException ie)
+        {
+            System.err.println("Invalid message received: " + ie.getMessage());
+        }
         catch (InvalidCipherTextException cte)
         {
             System.out.println(Colour.RED + cte.getMessage() + Colour.RESET);
@@ -101,79 +173,124 @@ public class ReceiveController extends ReceiverAdapter
     }
 
     /**
-     * 
+     * Handles authentication requests, the signature is verified and valid
+     * requests are queued for the user to decide on using /auth so that the
+     * receive thread never waits on user input.
      * @param msg
+     * @param src
      */
-    private void authRequestHandler(SecureMessage msg, Address src) throws IOException
+    private void authRequestHandler(SecureMessage msg, final Address src)
     {
-        /* Only accept requests if authenticated */
-        if (! ProgramState.AUTHENTICATED)
+        /* Only accept requests if authenticated and the network key can be sent */
+        if (! (session.isAuthenticated() && session.isKeyReceived()))
         {
             return;
         }
                 
         AuthRequest authRequest = (AuthRequest) msg;
         
-        ECPublicKeyParameters pubKey = ECGKeyUtil.decodePubKey(authRequest.getPublicKey());
-        String strPubKey = new String(Hex.encode(authRequest.getPublicKey()));
+        /* Ignore requests from trusted members or requests already pending */
+        if (session.getTrustedMembers().contains(authRequest.getPublicKey()) 
+                || isPending(authRequest.getPublicKey()))
+        {
+            return;
+        }
         
-        ProgramState.AUTHENTICATION_DECISION = true;
-                        
-        System.out.println("\n> Received key exchange from: " + src.toString());
-        System.out.print("> Verify/Reject/Ignore (V/R/I): "); 
-        String choice = waitForInput();
+        final PeerKey peerKey = PublicKeyCache.get(authRequest.getPublicKey());
+        final boolean combinedHandshake = authRequest.isCombinedHandshake();
         
-        if (choice.equalsIgnoreCase("v"))
-        {
-            if (ECDSA.verifyAuthRequest(pubKey, ProgramState.passphrase, authRequest.getSignature()))
-            {
-                System.out.println(Colour.GREEN + "> Signature valid." + Colour.RESET);
-                System.out.print("> Trust new member? (Y/N): ");
-                
-                if (waitForInput().equalsIgnoreCase("y"))
-                {
-                    /* Update list of trusted members */
-                    System.out.println("> Updating list of trusted members...");
-                    if (! ProgramState.trustedKeys.containsKey(strPubKey))
+        /* Requests arriving together have their signatures verified together */
+        boolean queued = verifier.verify(
+                ECDSA.authRequest(peerKey.getPublicKey(), session.getPassphrase(), authRequest.getFlags(), 
+                        authRequest.getSignature()), 
+                new VerificationQueue.Callback() {
+                    @Override
+                    public void verified(boolean valid)
                     {
-                        ProgramState.trustedKeys.put(strPubKey, src);
+                        authRequestVerified(valid, peerKey, src, combinedHandshake);
                     }
-                    
-                    /* Send authenticated acknowledgement msg */
-                    System.out.println(Colour.YELLOW + "> Authenticated member announced." + Colour.RESET);
-                    SendController sendController = new SendController();
-                    sendController.send(MessageType.AUTH_ACKNOWLEDGE, pubKey, null);
-                    
-                    /* Update state */
-                    ProgramState.AUTHENTICATION_ACKNOWLEDGE = true;
-                }
-            }
-            else
-            {
-                System.out.println(Colour.RED + "> Signature invalid." + Colour.RESET);
-                System.out.print("> Ignore sender permanently? (Y/N): ");
-                
-                /* ban permanently if yes */
-                if (waitForInput().equalsIgnoreCase("y"))
-                {
-                    ProgramState.blacklist.add(src);    
-                    System.out.println(Colour.YELLOW + "> Sender ignored permanently." + Colour.RESET);
-                }
-            }
+                });
+        if (! queued)
+        {
+            filter.dropped(DropReason.VERIFIER_FULL);
+        }
+    }
+    
+    
+    /**
+     * Queues the authentication request for the user once its signature has
+     * been verified
+     * @param valid True if the signature of the request is valid
+     * @param peerKey The public key of the member requesting access
+     * @param src The address of the member requesting access
+     * @param combinedHandshake True if the key is to be sent with the acknowledgement
+     */
+    private void authRequestVerified(boolean valid, PeerKey peerKey, Address src, boolean combinedHandshake)
+    {
+        /* Drop requests with invalid signatures before they are ever shown */
+        if (! valid)
+        {
+            filter.dropped(DropReason.BAD_SIGNATURE);
+            invalidRequestNotice(src);
+            return;
         }
-        else if (choice.equalsIgnoreCase("i"))
+        
+        /* The same request may have been verified in the batch more than once */
+        if (session.getPendingRequests().size() >= ChannelSession.MAX_PENDING_REQUESTS
+                || isPending(peerKey.getEncoded()))
         {
-            System.out.print("> Ignore sender permanently? (Y/N): ");
-            
-            /* ban permanently if yes */
-            if (waitForInput().equalsIgnoreCase("y"))
+            return;
+        }
+        
+        session.getPendingRequests().add(new PendingRequest(peerKey, src, combinedHandshake));
+        printNotice(Colour.YELLOW + "> Authentication request from: " + src.toString() 
+                + ", use /auth to decide." + Colour.RESET);
+    }
+    
+    
+    /**
+     * Notifies the user of invalid authentication requests, at most once per
+     * interval so that a flood of forged requests cannot flood the console
+     * @param src The address of the latest invalid request
+     */
+    private void invalidRequestNotice(Address src)
+    {
+        long now = System.nanoTime();
+        ++invalidSinceNotice;
+        
+        if (now - lastInvalidNotice < INVALID_NOTICE_INTERVAL)
+        {
+            return;
+        }
+        
+        if (invalidSinceNotice == 1)
+        {
+            printNotice(Colour.RED + "> Invalid authentication request from: " + src.toString() + Colour.RESET);
+        }
+        else
+        {
+            printNotice(Colour.RED + "> " + invalidSinceNotice + " invalid authentication requests, latest from: " 
+                    + src.toString() + Colour.RESET);
+        }
+        lastInvalidNotice = now;
+        invalidSinceNotice = 0;
+    }
+    
+    
+    /**
+     * Returns true if there is already a request pending for the public key
+     * @param publicKey The compressed encoding of the public key
+     */
+    private boolean isPending(byte[] publicKey)
+    {
+        for (PendingRequest request : session.getPendingRequests())
+        {
+            if (Arrays.equals(request.getPeerKey().getEncoded(), publicKey))
             {
-                ProgramState.blacklist.add(src);    
-                System.out.println(Colour.YELLOW + "> Sender ignored permanently." + Colour.RESET);
+                return true;
             }
         }
-        
-        ProgramState.AUTHENTICATION_DECISION = false;
+        return false;
     }
 
 
@@ -185,63 +302,103 @@ public class ReceiveController extends ReceiverAdapter
     private void authAcknowledgeHandler(SecureMessage msg, Address src)
     {
         /* Check if in requesting authentication state */
-        if (! ProgramState.AUTHENTICATION_REQUEST)
+        if (! session.isAuthenticationRequest())
         {
             return;
         }
         
         AuthAcknowledge authAcknowledge = (AuthAcknowledge) msg;
         
-        ECPublicKeyParameters pubKey = ECGKeyUtil.decodePubKey(authAcknowledge.getPublicKey());
-        ECPublicKeyParameters authKey = ECGKeyUtil.decodePubKey(authAcknowledge.getAuthKey());
-        String strPubKey = new String(Hex.encode(authAcknowledge.getPublicKey()));
+        PeerKey peerKey = PublicKeyCache.get(authAcknowledge.getPublicKey());
+        ECPublicKeyParameters pubKey = peerKey.getPublicKey();
+        ECPublicKeyParameters authKey = PublicKeyCache.get(authAcknowledge.getAuthKey()).getPublicKey();
         
         /* Check if acknowledge valid */
-        if (ECDSA.verifyAuthAcknowledge(pubKey, authKey, ProgramState.passphrase, authAcknowledge.getSignature()))
+        if (ECDSA.verifyAuthAcknowledge(pubKey, authKey, session.getPassphrase(), authAcknowledge.getSignature()))
         {
             /* Add the client that acknowledged as trusted (for client requesting access) */
-            if (! ProgramState.trustedKeys.containsKey(strPubKey))
-            {
-                ProgramState.trustedKeys.put(strPubKey, src);
-            }
+            session.getTrustedMembers().putIfAbsent(peerKey, src);
             
-            ProgramState.AUTHENTICATED = true;
+            session.setAuthenticated(true);
         }
     }
 
 
     /**
-     * 
+     * Handles key exchange requests from members that have been acknowledged,
+     * the handshake with each member is tracked separately so any number of
+     * members can be joining at once
      * @param msg
      * @param src
      */
-    private void keyExchangeHandler(SecureMessage msg, Address src)
+    private void keyExchangeHandler(SecureMessage msg, final Address src)
     {
-        /* Check if awaiting key request state after acknowledgment */
-        if (! (ProgramState.AUTHENTICATED && ProgramState.AUTHENTICATION_ACKNOWLEDGE))
+        /* Only a member with the network key can send it */
+        if (! (session.isAuthenticated() && session.isKeyReceived()))
         {
             return;
         }
         
         KeyExchange keyExchange = (KeyExchange) msg;
+        final TrustedMember member = session.getTrustedMembers().get(keyExchange.getPublicKey());
+        
+        /* Check if awaiting key request from the member after acknowledgment */
+        if (member == null 
+                || ! session.getHandshakes().isAwaitingKeyExchange(member.getPeerKey().getEncoded()))
+        {
+            return;
+        }
         
-        ECPublicKeyParameters pubKey = ECGKeyUtil.decodePubKey(keyExchange.getPublicKey());
-        String strPubKey = new String(Hex.encode(keyExchange.getPublicKey()));
+        final ECPublicKeyParameters pubKey = member.getPeerKey().getPublicKey();
         
-        if (! ProgramState.trustedKeys.containsKey(strPubKey))
+        /* Key exchange requests arriving together are verified together */
+        boolean queued = verifier.verify(
+                ECDSA.keyExchange(pubKey, session.getPassphrase(), keyExchange.getSignature()), 
+                new VerificationQueue.Callback() {
+                    @Override
+                    public void verified(boolean valid)
+                    {
+                        keyExchangeVerified(valid, member, src);
+                    }
+                });
+        if (! queued)
+        {
+            filter.dropped(DropReason.VERIFIER_FULL);
+        }
+    }
+    
+    
+    /**
+     * Sends the network key to the member once the signature of their key
+     * exchange request has been verified
+     * @param valid True if the signature of the request is valid
+     * @param member The trusted member requesting the key
+     * @param src The address of the member
+     */
+    private void keyExchangeVerified(boolean valid, TrustedMember member, Address src)
+    {
+        ECPublicKeyParameters pubKey = member.getPeerKey().getPublicKey();
+        
+        if (! valid)
+        {
+            filter.dropped(DropReason.BAD_SIGNATURE);
+            return;
+        }
+        
+        /* The key is only sent within the member's budget */
+        if (! filter.allowMember(member))
         {
             return;
         }
         
-        /* Check if key received valid */
-        if (ECDSA.verifyKeyExchange(pubKey, ProgramState.passphrase, keyExchange.getSignature()))
+        /* Check if the key has not already been sent */
+        byte[] publicKey = member.getPeerKey().getEncoded();
+        if (session.getHandshakes().sendingKey(publicKey))
         {
-            /* Send the encrypted symmetric key */
-            SendController sendController = new SendController();
-            sendController.send(MessageType.KEY, pubKey, src);
+            member.seen(src);
             
-            /* Update the state */
-            ProgramState.AUTHENTICATION_ACKNOWLEDGE = false;
+            /* Send the encrypted symmetric key, the handshake is acknowledged again if it fails */
+            session.getHandshakes().keySent(publicKey, sendController.send(MessageType.KEY, pubKey, src));
         }
     }
 
@@ -254,97 +411,220 @@ public class ReceiveController extends ReceiverAdapter
     private void keyHandler(SecureMessage msg) throws InvalidCipherTextException
     {
         /* Check state, if authenticated and awaiting key exchange */
-        if (! (ProgramState.AUTHENTICATED && ProgramState.KEY_EXCHANGE_REQUEST))
+        if (! (session.isAuthenticated() && session.isKeyExchangeRequest()))
         {
             return;
         }
         
         Key key = (Key) msg;
-        
-        ECPublicKeyParameters pubKey = ECGKeyUtil.decodePubKey(key.getPublicKey());
-        String strPubKey = new String(Hex.encode(key.getPublicKey()));
+        TrustedMember member = session.getTrustedMembers().get(key.getPublicKey());
         
         /* If from trusted contact */
-        if (ProgramState.trustedKeys.containsKey(strPubKey))
+        if (member != null)
         {
+            ECPublicKeyParameters pubKey = member.getPeerKey().getPublicKey();
+            
             /* Verify key */
-            if (ECDSA.verifyKey(pubKey, key.getSymmetricKey(), ProgramState.passphrase, key.getSignature()))
+            if (ECDSA.verifyKey(pubKey, key.getSymmetricKey(), session.getPassphrase(), key.getSignature())
+                    && filter.allowMember(member))
             {   
-                /* Decrypt the symmetric key */
-                byte[] deccryptedKey = Cipher.decryptKey(
-                        ProgramState.privateKey, 
-                        (ECPublicKeyParameters) pubKey, 
-                        ProgramState.passphrase, 
-                        key.getSymmetricKey());
-                
                 /* Set symmetric key & update state to not receiving */
-                ProgramState.symmetricKey = deccryptedKey;
-                ProgramState.KEY_EXCHANGE_REQUEST = false;
-                ProgramState.KEY_RECEIVED = true;
+                setKey(pubKey, key.getSymmetricKey());
+                session.setKeyExchangeRequest(false);
+                session.setKeyReceived(true);
             }
         }
     }
+    
+    
+    /**
+     * Handles the acknowledgement and key sent together for the combined 
+     * handshake, a single signature is verified for both. The filter only
+     * accepts keys encrypted for this member.
+     * @param msg
+     * @param src
+     * @throws InvalidCipherTextException
+     */
+    private void authKeyHandler(SecureMessage msg, Address src) throws InvalidCipherTextException
+    {
+        /* Check if in requesting authentication state, only the first key is used */
+        if (! session.isAuthenticationRequest() || session.isKeyReceived())
+        {
+            return;
+        }
+        
+        AuthKey authKey = (AuthKey) msg;
+        
+        PeerKey peerKey = PublicKeyCache.get(authKey.getPublicKey());
+        ECPublicKeyParameters pubKey = peerKey.getPublicKey();
+        
+        if (ECDSA.verifyAuthKey(pubKey, session.getPublicKey(), authKey.getSymmetricKey(), 
+                session.getPassphrase(), authKey.getSignature()))
+        {
+            setKey(pubKey, authKey.getSymmetricKey());
+            
+            /* Add the client that acknowledged as trusted */
+            session.getTrustedMembers().putIfAbsent(peerKey, src);
+            
+            session.setAuthenticated(true);
+            session.setKeyReceived(true);
+        }
+    }
+    
+    
+    /**
+     * Handles a new network key multicast by a trusted member, only the key
+     * encrypted for this member is decrypted. The filter only accepts rekey
+     * messages carrying a key for this member. The members excluded from the
+     * key are no longer trusted, and the key is then forwarded to the trusted
+     * members it was not sent to.
+     * @param msg
+     * @param src
+     * @throws InvalidCipherTextException
+     */
+    private void rekeyHandler(SecureMessage msg, Address src) throws InvalidCipherTextException
+    {
+        /* Check that in a valid state */
+        if (! (session.isAuthenticated() && session.isKeyReceived()))
+        {
+            return;
+        }
+        
+        Rekey rekey = (Rekey) msg;
+        TrustedMember member = session.getTrustedMembers().get(rekey.getPublicKey());
+        byte[] encryptedKey = rekey.getSymmetricKey(keyId);
+        
+        /* Stale keys are ignored, so an old key cannot be replayed */
+        if (member == null || encryptedKey == null
+                || Math.abs(DateTimeUtils.currentTimeMillis() - rekey.getTimestamp()) > ChannelSession.REKEY_LIFETIME)
+        {
+            return;
+        }
+        
+        ECPublicKeyParameters pubKey = member.getPeerKey().getPublicKey();
+        if (ECDSA.verifyRekey(pubKey, rekey.getTimestamp(), rekey.getKeyIds(), rekey.getSymmetricKeys(), 
+                rekey.getExcludedIds(), session.getPassphrase(), rekey.getSignature())
+                && filter.allowMember(member)
+                && session.rekeyed(rekey.getTimestamp()))
+        {
+            setKey(pubKey, encryptedKey);
+            member.seen(src);
+            
+            /* The members removed from the channel are removed here as well */
+            for (long excludedId : rekey.getExcludedIds())
+            {
+                session.getTrustedMembers().remove(excludedId);
+            }
+            
+            /* Pass the key on to the members this member trusts that do not have it */
+            sendController.send(MessageType.REKEY, rekey, null);
+            
+            printNotice(Colour.YELLOW + "> Channel key changed by: " + src.toString() + Colour.RESET);
+        }
+    }
+    
+    
+    /**
+     * Decrypts the network key sent by a trusted member and sets the keys for
+     * the channel
+     * @param pubKey The public key of the member that sent the key
+     * @param encryptedKey The ENCRYPTED symmetric key
+     * @throws InvalidCipherTextException
+     */
+    private void setKey(ECPublicKeyParameters pubKey, byte[] encryptedKey) throws InvalidCipherTextException
+    {
+        /* Decrypt the symmetric key */
+        byte[] keyData = Cipher.decryptKey(
+                session.getPrivateKey(), 
+                pubKey, 
+                session.getPassphrase(), 
+                encryptedKey);
+        
+        /* The cipher suite and epoch of the channel are sent along with the key */
+        session.setKeys(KeyRatchet.fromKeyData(keyData, session.getPassphrase()));
+        Arrays.fill(keyData, (byte) 0);
+    }
 
     
     /**
-     * 
+     * Handles encrypted messages, which are multicast to the entire channel.
+     * Messages are accepted from any member holding the network key, the
+     * HMAC is what authenticates the sender as a member.
      * @param msg
      */
     private void encryptedMessageHandler(SecureMessage msg) 
             throws InvalidCipherTextException
     {
         /* Check that in a valid state */
-        if (! (ProgramState.AUTHENTICATED && ProgramState.KEY_RECEIVED))
+        if (! (session.isAuthenticated() && session.isKeyReceived()))
         {
             return;
         }
         
         EncryptedMessage encryptedMessage = (EncryptedMessage) msg;
+        KeyRatchet ratchet = session.getKeys();
+        
+        /* Only accept the cipher suite chosen for the channel */
+        if (encryptedMessage.getSuite() != ratchet.getSuite().getId())
+        {
+            throw new InvalidCipherTextException("Message cipher suite is not used by channel!");
+        }
+        
+        /* The keys of the message epoch, derived without moving the ratchet if the epoch is new */
+        long epoch = encryptedMessage.getEpoch();
+        ChannelKeys keys = ratchet.getKeys(epoch);
+        if (keys == null)
+        {
+            filter.dropped(DropReason.EPOCH);
+            return;
+        }
        
-        /* Only decrypt if the message HMAC is valid */
-        if (Cipher.verifyHMAC(ProgramState.passphrase, encryptedMessage.getHMAC(), 
-                encryptedMessage.getMessage()))
-        {            
-            /* Decrypt the message */
-            byte[] message = Cipher.decryptMsg(
-                    ProgramState.symmetricKey, 
-                    encryptedMessage.getIV(), 
-                    encryptedMessage.getMessage());
-            
-            /* Remove the current line from prompt */
-            String delete = "";
-            for (int i = 0; i < new String(ProgramState.nick + "> ").length(); ++i)
-            {
-                delete += "\b";
-            }
-            
-            System.out.println(delete + new String(message));
-            System.out.print(ProgramState.nick + "> ");
+        /* Verify and decrypt the message in place, fails if the message is not authentic */
+        byte[] message = new byte[encryptedMessage.getLength()];
+        keys.getSuite().decrypt(
+                keys, 
+                encryptedMessage.getBuffer(), 
+                encryptedMessage.getIVOffset(),
+                encryptedMessage.getBuffer(), 
+                encryptedMessage.getMessageOffset(),
+                encryptedMessage.getLength(),
+                message, 
+                0);
+        
+        /* The ratchet only moves forward to the epoch of an authentic message */
+        if (epoch > ratchet.getEpoch())
+        {
+            ratchet.advance(epoch);
+        }
+        
+        /* The counter is only marked once authentic, a copy may have been accepted at the same time */
+        int senderId = encryptedMessage.getSenderId();
+        long counter = encryptedMessage.getCounter();
+        ReplayWindow window = session.addReplayWindow(senderId, counter);
+        if (! window.mark(counter))
+        {
+            filter.dropped(window.isTooOld(counter) ? DropReason.OUT_OF_WINDOW : DropReason.REPLAYED);
+            return;
         }
+        
+        printNotice(new String(message));
     }
     
     
     /**
-     * Method to handle concurrent access to the terminal input from the user
-     * @return
+     * Prints a notice above the current input prompt
+     * @param notice The notice to display
      */
-    private String waitForInput()
+    private void printNotice(String notice)
     {
-        while(!ProgramState.symbol.getInputWait() && ProgramState.symbol.getInput() == null)
-        {
-            synchronized(ProgramState.symbol) {
-                try {
-                    ProgramState.symbol.wait();
-                }
-                catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        /* Remove the current line from prompt */
+        String delete = "";
+        for (int i = 0; i < new String(ProgramState.nick + "> ").length(); ++i)
+        {
+            delete += "\b";
         }
-        ProgramState.symbol.setInputWait();
-        String value = ProgramState.symbol.getInput();
-        ProgramState.symbol.resetInput();
         
-        return value;
+        System.out.println(delete + notice);
+        System.out.print(ProgramState.nick + "> ");
     }
 }
\ No newline at end of file
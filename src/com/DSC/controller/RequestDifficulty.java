@@ -0,0 +1,84 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.DSC.crypto.ProofOfWork;
+
+/**
+ * The difficulty of the proof of work stamp required on the authentication
+ * requests received, which is raised as the rate of requests rises. Each bit
+ * of difficulty halves the requests that have their signature verified, so 
+ * the difficulty is raised by one bit each time the rate of requests doubles
+ * past the rate that is verified freely, and lowered by one bit for each 
+ * second the rate stays below it.
+ */
+public class RequestDifficulty
+{
+    /* Difficulty always required, none by default so stamps are optional */
+    public static final int MIN_DIFFICULTY = Integer.getInteger("dsc.powMinDifficulty", 0);
+    
+    /* Never require more than the members mint, 0 never checks stamps */
+    public static final int MAX_DIFFICULTY = Integer.getInteger("dsc.powMaxDifficulty", ProofOfWork.DIFFICULTY);
+    
+    /* Requests per second verified without raising the difficulty */
+    public static final int REQUEST_RATE = Integer.getInteger("dsc.authRequestRate", 4);
+    
+    private final AtomicLong second = new AtomicLong();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int level = 0;
+    
+    
+    /**
+     * Records a request received and returns the difficulty required for it
+     * @param now The current time in milliseconds
+     * @return The number of leading zero bits required in the hash of the stamp
+     */
+    public int required(long now)
+    {
+        long current = now / 1000;
+        long last = second.get();
+        
+        /* The first request in each second sets the level from the last second */
+        if (current != last && second.compareAndSet(last, current))
+        {
+            int lastLevel = bits(requests.getAndSet(0));
+            level = Math.max(lastLevel, level - (int) Math.min(current - last, Integer.MAX_VALUE));
+        }
+        
+        int difficulty = MIN_DIFFICULTY + Math.max(level, bits(requests.incrementAndGet()));
+        return Math.min(difficulty, MAX_DIFFICULTY);
+    }
+    
+    
+    /**
+     * Returns the bits of difficulty for the number of requests in a second,
+     * one for each doubling past the request rate
+     */
+    private static int bits(int requests)
+    {
+        int excess = requests / REQUEST_RATE;
+        return excess == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(excess);
+    }
+}
@@ -22,35 +22,63 @@
 package com.DSC.controller;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.jgroups.Address;
 import org.jgroups.Message;
+import org.joda.time.DateTimeUtils;
 
+import com.DSC.crypto.ChannelKeys;
 import com.DSC.crypto.Cipher;
 import com.DSC.crypto.ECDSA;
 import com.DSC.crypto.ECGKeyUtil;
+import com.DSC.crypto.KeyRatchet;
+import com.DSC.crypto.ProofOfWork;
 import com.DSC.message.AbstractMessageFactory;
+import com.DSC.message.AuthRequest;
+import com.DSC.message.EncryptedMessage;
+import com.DSC.message.MessageCodec;
 import com.DSC.message.MessageType;
+import com.DSC.message.Rekey;
 import com.DSC.message.SecureMessage;
-import com.DSC.utility.ProgramState;
+import com.DSC.utility.ChannelSession;
+import com.DSC.utility.TrustedMember;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class SendController
 {
+    private final ChannelSession session;
+    
+    /**
+     * Creates a controller that sends messages to the channel of the session
+     * @param session The channel session
+     */
+    public SendController(ChannelSession session)
+    {
+        this.session = session;
+    }
+    
+    
     /**
      * 
      * @param type
      * @param msg
+     * @return True if the message was sent
      */
-    public void send(MessageType type, Object data, Address dest)
+    public boolean send(MessageType type, Object data, Address dest)
     {
         try
         {
             switch (type)
             {
                 case AUTH_REQUEST:
-                    authRequestHandler();
+                    authRequestHandler(data);
                     break;
                 case AUTH_ACKNOWLEDGE:
                     authAcknowledgeHandler(data);
@@ -64,9 +92,16 @@ public class SendController
                 case ENCRYPTED_MESSAGE:
                     encryptedMessageHandler(data, dest);
                     break;
+                case AUTH_KEY:
+                    authKeyHandler(data, dest);
+                    break;
+                case REKEY:
+                    rekeyHandler(data);
+                    break;
                 default:
                     throw new IllegalArgumentException("Invalid message type!");
             }
+            return true;
         }
         catch (ClassCastException ce)
         {
@@ -78,35 +113,91 @@ public class SendController
             System.err.println("Something went terribly wrong!");
             e.printStackTrace();
         }
+        return false;
+    }
+
+    
+    /**
+     * Requests access to the channel
+     * @return A future completed once a member of the channel acknowledges 
+     * the request
+     */
+    public ListenableFuture<ChannelSession> requestAuthentication()
+    {
+        ListenableFuture<ChannelSession> authenticated = session.expectAuthentication();
+        send(MessageType.AUTH_REQUEST, null, null);
+        return authenticated;
+    }
+    
+    
+    /**
+     * Requests the network key as soon as authenticated, the request is sent
+     * by the thread that receives the acknowledgement
+     * @param authenticated The future completed once authenticated
+     * @return A future completed once the network key is received
+     */
+    public ListenableFuture<ChannelSession> requestKey(ListenableFuture<ChannelSession> authenticated)
+    {
+        return Futures.transform(authenticated, new AsyncFunction<ChannelSession, ChannelSession>() {
+            @Override
+            public ListenableFuture<ChannelSession> apply(ChannelSession session)
+            {
+                ListenableFuture<ChannelSession> keyReceived = session.expectKey();
+                send(MessageType.KEY_EXCHANGE, null, null);
+                return keyReceived;
+            }
+        });
+    }
+
+    
+    /**
+     * Requests access and the network key together using the combined 
+     * handshake, the member that trusts the request sends the key along with
+     * its acknowledgement
+     * @return A future completed once the network key is received
+     */
+    public ListenableFuture<ChannelSession> requestAccess()
+    {
+        ListenableFuture<ChannelSession> keyReceived = session.expectKey();
+        send(MessageType.AUTH_REQUEST, AuthRequest.COMBINED_HANDSHAKE, null);
+        return keyReceived;
     }
 
     
     /**
      * Handles sending authentication requests 
+     * @param flags The handshake options requested, null for the classic handshake
      * @throws Exception 
      */
-    private void authRequestHandler() throws Exception
+    private void authRequestHandler(Object flags) throws Exception
     {
-        /* Generate the signature for the message */        
+        /* Generate the signature for the message, covering the requested options */        
+        byte _flags = flags != null ? (Byte) flags : 0;
         BigInteger[] signature = ECDSA.signAuthRequest(
-                ProgramState.privateKey, 
-                ProgramState.publicKey, 
-                ProgramState.passphrase);
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
+                session.getPassphrase(), 
+                _flags);
+        
+        /* Mint the proof of work stamp for the request */
+        byte[] publicKey = ECGKeyUtil.encodePubKey(session.getPublicKey());
+        long timestamp = DateTimeUtils.currentTimeMillis();
+        long nonce = ProofOfWork.mint(publicKey, timestamp, ProofOfWork.DIFFICULTY);
         
         /* Create an authentication request message */
-        SecureMessage secureMsg = AbstractMessageFactory.createMessage(
-                MessageType.AUTH_REQUEST, 
-                ECGKeyUtil.encodePubKey(ProgramState.publicKey), 
-                null, 
-                null, 
+        SecureMessage secureMsg = AbstractMessageFactory.createAuthRequest(
+                publicKey, 
+                _flags, 
+                timestamp, 
+                nonce, 
                 signature);  
         
         /* Send the message using JGroups */
-        Message msg = new Message(null, null, secureMsg);
-        ProgramState.channel.send(msg);
+        Message msg = new Message(null, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
         
         /* Update the program state */
-        ProgramState.AUTHENTICATION_REQUEST = true;
+        session.setAuthenticationRequest(true);
     }
 
     
@@ -119,22 +210,22 @@ public class SendController
     {
         /* Generate the signature for the authenticated message */
         BigInteger[] signature = ECDSA.signAuthAcknowledge(
-                ProgramState.privateKey, 
-                ProgramState.publicKey, 
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
                 (ECPublicKeyParameters) authKey, 
-                ProgramState.passphrase);
+                session.getPassphrase());
         
         /* Create an authentication acknowledge message */
         SecureMessage secureMsg = AbstractMessageFactory.createMessage(
                 MessageType.AUTH_ACKNOWLEDGE, 
-                ECGKeyUtil.encodePubKey(ProgramState.publicKey), 
+                ECGKeyUtil.encodePubKey(session.getPublicKey()), 
                 null, 
                 ECGKeyUtil.encodePubKey((ECPublicKeyParameters) authKey), 
                 signature);
         
         /* Send the message using JGroups */
-        Message msg = new Message(null, null, secureMsg);
-        ProgramState.channel.send(msg);
+        Message msg = new Message(null, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
     }
 
     
@@ -146,24 +237,24 @@ public class SendController
     {
         /* Generate the signature for the key exchange message */
         BigInteger[] signature = ECDSA.signKeyExchange(
-                ProgramState.privateKey, 
-                ProgramState.publicKey, 
-                ProgramState.passphrase);
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
+                session.getPassphrase());
         
         /* Create a key exchange message */
         SecureMessage secureMsg = AbstractMessageFactory.createMessage(
                 MessageType.KEY_EXCHANGE, 
-                ECGKeyUtil.encodePubKey(ProgramState.publicKey), 
+                ECGKeyUtil.encodePubKey(session.getPublicKey()), 
                 null,
                 null, 
                 signature);
         
         /* Send the message using JGroups */
-        Message msg = new Message(null, null, secureMsg);
-        ProgramState.channel.send(msg);
+        Message msg = new Message(null, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
         
         /* Update the program state */
-        ProgramState.KEY_EXCHANGE_REQUEST = true;
+        session.setKeyExchangeRequest(true);
     }
 
     
@@ -176,63 +267,266 @@ public class SendController
     private void keyHandler(Object authKey, Address dest) throws InvalidCipherTextException, Exception
     {
         /* Encrypt the key with the other person's public key */
-        byte[] encryptedKey = Cipher.encryptKey(
-                ProgramState.privateKey, 
-                (ECPublicKeyParameters) authKey, 
-                ProgramState.passphrase, 
-                ProgramState.symmetricKey);
+        byte[] encryptedKey = encryptKey((ECPublicKeyParameters) authKey);
         
         /* sign the key with my private/public keypair */
         BigInteger[] signature = ECDSA.signKey(
-                ProgramState.privateKey, 
-                ProgramState.publicKey, 
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
                 encryptedKey,
-                ProgramState.passphrase);
+                session.getPassphrase());
         
         /* Send the ENCRYPTED key */
         SecureMessage secureMsg = AbstractMessageFactory.createMessage(
                 MessageType.KEY, 
-                ECGKeyUtil.encodePubKey(ProgramState.publicKey), 
+                ECGKeyUtil.encodePubKey(session.getPublicKey()), 
                 null, 
                 encryptedKey, 
                 signature);
         
         /* Send the message using JGroups */
-        Message msg = new Message(dest, null, secureMsg);
-        ProgramState.channel.send(msg);
+        Message msg = new Message(dest, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
     }
 
     
     /**
+     * Sends the acknowledgement and the encrypted network key together to 
+     * the member that requested access using the combined handshake
+     * @param authKey The authenticated public key
+     * @param dest The address of the member that requested access
+     * @throws Exception
+     */
+    private void authKeyHandler(Object authKey, Address dest) throws Exception
+    {
+        /* Encrypt the key with the other person's public key */
+        byte[] encryptedKey = encryptKey((ECPublicKeyParameters) authKey);
+        
+        /* A single signature covers the acknowledgement and the key */
+        BigInteger[] signature = ECDSA.signAuthKey(
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
+                (ECPublicKeyParameters) authKey, 
+                encryptedKey, 
+                session.getPassphrase());
+        
+        SecureMessage secureMsg = AbstractMessageFactory.createAuthKey(
+                ECGKeyUtil.encodePubKey(session.getPublicKey()), 
+                ECGKeyUtil.encodePubKey((ECPublicKeyParameters) authKey), 
+                encryptedKey, 
+                signature);
+        
+        /* Send the message using JGroups */
+        Message msg = new Message(dest, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
+    }
+    
+    
+    /**
+     * Replaces the network key, the new key is encrypted for each trusted 
+     * member and multicast to the channel in a single message that is signed
+     * once. The key ids of the members removed from the channel, and of the
+     * trusted members whose public key is blacklisted, are signed along with
+     * the key as excluded members, who do not receive the key.
      * 
-     * @param msg
+     * Each member only holds the public keys of the members it trusts, so a
+     * member receiving a new key forwards it the same way to the members it
+     * trusts that the key was not encrypted for. The excluded members of the
+     * original key are kept, so no member forwards the key to them whatever
+     * members it trusts. The key spreads along the trust between members 
+     * until every member has it, and the timestamp of the original key is 
+     * kept so the members that already have it ignore it.
+     * @param data The rekey message received to forward, or null for a new key
+     * @throws Exception
+     */
+    private void rekeyHandler(Object data) throws Exception
+    {
+        KeyRatchet keys;
+        long timestamp;
+        long[] received;
+        long[] excludedIds;
+        byte[] sender;
+        
+        if (data == null)
+        {
+            /* Create the new symmetric key, the cipher suite of the channel is kept */
+            byte[] symmetricKey = new byte[KeyRatchet.KEY_SIZE];
+            new SecureRandom().nextBytes(symmetricKey);
+            keys = new KeyRatchet(symmetricKey, KeyRatchet.currentEpoch(), session.getPassphrase(), 
+                    session.getKeys().getSuite());
+            timestamp = DateTimeUtils.currentTimeMillis();
+            received = new long[0];
+            excludedIds = excludedIds();
+            sender = null;
+        }
+        else
+        {
+            /* Forward the key received, the sender and the members it was sent to have it */
+            Rekey rekey = (Rekey) data;
+            keys = session.getKeys();
+            timestamp = rekey.getTimestamp();
+            received = rekey.getKeyIds();
+            excludedIds = rekey.getExcludedIds();
+            sender = rekey.getPublicKey();
+        }
+        byte[] keyData = keys.getKeyData();
+        
+        /* Encrypt the key with each trusted member's public key */
+        List<TrustedMember> members = session.getTrustedMembers().members();
+        long[] keyIds = new long[members.size()];
+        byte[][] encryptedKeys = new byte[members.size()][];
+        int count = 0;
+        for (TrustedMember member : members)
+        {
+            byte[] publicKey = member.getPeerKey().getEncoded();
+            long memberId = MessageCodec.getKeyId(publicKey);
+            if (session.getKeyBlacklist().contains(publicKey, 0) || Arrays.equals(publicKey, sender)
+                    || contains(received, memberId) || contains(excludedIds, memberId))
+            {
+                continue;
+            }
+            
+            keyIds[count] = memberId;
+            encryptedKeys[count++] = Cipher.encryptKey(
+                    session.getPrivateKey(), 
+                    member.getPeerKey().getPublicKey(), 
+                    session.getPassphrase(), 
+                    keyData);
+        }
+        Arrays.fill(keyData, (byte) 0);
+        
+        /* The key is only forwarded if there are members without it */
+        if (data != null && count == 0)
+        {
+            return;
+        }
+        keyIds = Arrays.copyOf(keyIds, count);
+        encryptedKeys = Arrays.copyOf(encryptedKeys, count);
+        
+        /* A single signature covers the key sent to every member */
+        BigInteger[] signature = ECDSA.signRekey(
+                session.getPrivateKey(), 
+                session.getPublicKey(), 
+                timestamp, 
+                keyIds, 
+                encryptedKeys, 
+                excludedIds, 
+                session.getPassphrase());
+        
+        SecureMessage secureMsg = AbstractMessageFactory.createRekey(
+                ECGKeyUtil.encodePubKey(session.getPublicKey()), 
+                timestamp, 
+                keyIds, 
+                encryptedKeys, 
+                excludedIds, 
+                signature);
+        
+        /* Send the message using JGroups, a multicast to the entire channel */
+        Message msg = new Message(null, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
+        
+        /* Update the program state, a forwarded key is already set */
+        if (data == null)
+        {
+            session.rekeyed(timestamp);
+            session.setKeys(keys);
+        }
+    }
+    
+    
+    /**
+     * Returns the key ids of the members excluded from a new network key, the
+     * members removed from the channel and the trusted members whose public
+     * key is blacklisted
+     */
+    private long[] excludedIds()
+    {
+        long[] removed = session.getTrustedMembers().removed();
+        List<TrustedMember> members = session.getTrustedMembers().members();
+        long[] excludedIds = Arrays.copyOf(removed, removed.length + members.size());
+        int count = removed.length;
+        
+        for (TrustedMember member : members)
+        {
+            byte[] publicKey = member.getPeerKey().getEncoded();
+            if (session.getKeyBlacklist().contains(publicKey, 0) && count < MessageCodec.MAX_REKEY_ENTRIES)
+            {
+                excludedIds[count++] = MessageCodec.getKeyId(publicKey);
+            }
+        }
+        return Arrays.copyOf(excludedIds, count);
+    }
+    
+    
+    /**
+     * Returns true if the key id is one of the key ids given
+     */
+    private static boolean contains(long[] keyIds, long keyId)
+    {
+        for (long id : keyIds)
+        {
+            if (id == keyId)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Encrypts the network key for the member, the cipher suite of the 
+     * channel and the current epoch are sent along with the ratcheted key
+     * @param authKey The public key of the member
+     * @return The encrypted key
+     * @throws InvalidCipherTextException
+     */
+    private byte[] encryptKey(ECPublicKeyParameters authKey) throws InvalidCipherTextException
+    {
+        if (session.getKeys() == null)
+        {
+            throw new IllegalStateException("The network key has not been received!");
+        }
+        
+        return Cipher.encryptKey(
+                session.getPrivateKey(), 
+                authKey, 
+                session.getPassphrase(), 
+                session.getKeys().getKeyData());
+    }
+    
+    
+    /**
+     * Encrypts and authenticates the message a single time, if no destination
+     * is given the message is multicast to every member of the channel.
+     * @param message The plaintext message
+     * @param dest The destination address, null to send to the entire channel
      * @throws Exception 
      */
     private void encryptedMessageHandler(Object message, Address dest) throws Exception
     {
-        /* Generate another unique IV */
-        byte[] IV = new byte[12];
-        ProgramState.IVEngine.nextBytes(IV);
+        KeyRatchet ratchet = session.getKeys();
+        long epoch = ratchet.getSendEpoch();
+        ChannelKeys keys = ratchet.advance(epoch);
+        byte[] data = ((String) message).getBytes();
         
-        /* Encrypt the message using symmetric key and IV with GRAIN128 */
-        byte[] encryptedMessage = Cipher.encryptMsg(
-                ProgramState.symmetricKey, 
-                IV, 
-                ((String) message).getBytes());
+        /* Create the message buffer, the message is encrypted directly into it */
+        EncryptedMessage secureMsg = AbstractMessageFactory.createMessage(
+                MessageType.ENCRYPTED_MESSAGE, 
+                keys.getSuite().getId(), 
+                epoch,
+                data.length);
+        byte[] buf = secureMsg.getBuffer();
         
-		/* Generate HMAC for the message */
-        BigInteger[] HMAC = Cipher.generateHMAC(ProgramState.passphrase, encryptedMessage);
+        /* The IV is unique, the sender's id and next message counter */
+        MessageCodec.putIV(buf, secureMsg.getOffset(), session.getSenderId(), session.nextCounter());
         
-		/* Send the encrypted message with HMAC */
-        SecureMessage secureMsg = AbstractMessageFactory.createMessage(
-                MessageType.ENCRYPTED_MESSAGE, 
-                null, 
-                IV, 
-                encryptedMessage, 
-                HMAC);
+        /* Encrypt and authenticate the message using the channel cipher suite */
+        keys.getSuite().encrypt(keys, buf, secureMsg.getIVOffset(), data, 0, data.length, 
+                buf, secureMsg.getMessageOffset());
         
-        /* Send the message using JGroups */
-        Message msg = new Message(dest, null, secureMsg);
-        ProgramState.channel.send(msg);
+        /* Send the message using JGroups, a null destination is a multicast */
+        Message msg = new Message(dest, null, AbstractMessageFactory.encodeMessage(secureMsg));
+        session.getChannel().send(msg);
     }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.controller;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.DSC.crypto.ECDSA;
+import com.DSC.crypto.SignedDigest;
+
+/**
+ * Verifies the signatures of handshake messages in batches. The thread that
+ * receives a message queues its signature and returns, the queue is then 
+ * drained by a thread of a pool shared by every session in the process, 
+ * which verifies everything queued, at most MAX_BATCH at a time, and calls 
+ * back with the result for each message. Messages received while a batch is
+ * verified wait for the next batch, so batches form whenever several 
+ * handshake messages arrive at once. A queue is only drained by one thread
+ * at a time and the callbacks are called in the order the messages were 
+ * queued, so the handshake of each sender moves through its states in order.
+ * 
+ * At most MAX_QUEUED signatures are waiting or being verified at once, 
+ * signatures queued beyond that are dropped, so a flood of signed messages
+ * cannot grow the queue without bound.
+ */
+public class VerificationQueue implements Runnable
+{
+    public static final int MAX_BATCH = 64;
+    public static final int MAX_QUEUED = Integer.getInteger("dsc.maxQueuedSignatures", 1024);
+    
+    /* The verifier threads shared by the queues of every session */
+    private static final ExecutorService verifiers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), 
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task)
+                {
+                    Thread thread = new Thread(task, "VerificationQueue");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    /**
+     * Called with the result once the signature of a message is verified
+     */
+    public interface Callback
+    {
+        public void verified(boolean valid) throws Exception;
+    }
+    
+    private final ConcurrentLinkedQueue<Entry> queue;
+    private final AtomicBoolean scheduled;
+    private final AtomicLong pending;
+    private final AtomicLong cpuTime;
+    private volatile boolean cpuTimed;
+    private volatile boolean stopped;
+    
+    
+    public VerificationQueue()
+    {
+        this.queue = new ConcurrentLinkedQueue<Entry>();
+        this.scheduled = new AtomicBoolean(false);
+        this.pending = new AtomicLong();
+        this.cpuTime = new AtomicLong();
+    }
+    
+    
+    /**
+     * Queues the signature to be verified, the callback is called by a 
+     * verifier thread. Nothing is queued once the queue is full or stopped.
+     * @param signed The signed digest of the message
+     * @param callback Called with the result of the verification
+     * @return False if the signature was dropped, the callback is not called
+     */
+    public boolean verify(SignedDigest signed, Callback callback)
+    {
+        if (stopped)
+        {
+            return false;
+        }
+        
+        if (pending.incrementAndGet() > MAX_QUEUED)
+        {
+            pending.decrementAndGet();
+            return false;
+        }
+        
+        queue.add(new Entry(signed, callback));
+        schedule();
+        return true;
+    }
+    
+    
+    /**
+     * Stops verifying signatures, the signatures queued are discarded without
+     * calling back. The shared verifier threads are left running for the 
+     * queues of the other sessions.
+     */
+    public void stop()
+    {
+        stopped = true;
+        discard();
+    }
+    
+    
+    /**
+     * Returns true if every signature queued has been verified and its 
+     * callback called
+     */
+    public boolean isIdle()
+    {
+        return pending.get() == 0;
+    }
+    
+    
+    /**
+     * Sets whether the CPU time used to verify the signatures is measured, 
+     * which is only needed to report it, such as by the cluster harness
+     * @param cpuTimed True to measure the CPU time
+     */
+    public void setCpuTimed(boolean cpuTimed)
+    {
+        this.cpuTimed = cpuTimed;
+    }
+    
+    
+    /**
+     * Returns the CPU time in nanoseconds used to verify the signatures and
+     * call back, while the CPU time is measured
+     */
+    public long getCpuTime()
+    {
+        return cpuTime.get();
+    }
+    
+    
+    /**
+     * Verifies the queued signatures in batches of at most MAX_BATCH until 
+     * the queue is empty
+     */
+    @Override
+    public void run()
+    {
+        ThreadMXBean threads = cpuTimed ? ManagementFactory.getThreadMXBean() : null;
+        List<Entry> entries = new ArrayList<Entry>(MAX_BATCH);
+        List<SignedDigest> batch = new ArrayList<SignedDigest>(MAX_BATCH);
+        
+        while (true)
+        {
+            Entry next;
+            while (entries.size() < MAX_BATCH && ! stopped && (next = queue.poll()) != null)
+            {
+                entries.add(next);
+            }
+            
+            /* Release the queue, unless a signature was queued after the last poll */
+            if (entries.isEmpty())
+            {
+                scheduled.set(false);
+                if (stopped)
+                {
+                    discard();
+                    return;
+                }
+                if (queue.isEmpty() || ! scheduled.compareAndSet(false, true))
+                {
+                    return;
+                }
+                continue;
+            }
+            
+            long start = threads != null ? threads.getCurrentThreadCpuTime() : 0;
+            for (Entry entry : entries)
+            {
+                batch.add(entry.signed);
+            }
+            
+            boolean[] valid;
+            try
+            {
+                valid = ECDSA.verify(batch);
+            }
+            catch (RuntimeException e)
+            {
+                /* A batch that cannot be verified is rejected, the thread carries on */
+                e.printStackTrace();
+                valid = new boolean[entries.size()];
+            }
+            
+            for (int i = 0; i < entries.size(); ++i)
+            {
+                try
+                {
+                    entries.get(i).callback.verified(valid[i]);
+                }
+                catch (Exception e)
+                {
+                    System.err.println("Something went terribly wrong!");
+                    e.printStackTrace();
+                }
+            }
+            if (threads != null)
+            {
+                cpuTime.addAndGet(threads.getCurrentThreadCpuTime() - start);
+            }
+            pending.addAndGet(-entries.size());
+            
+            entries.clear();
+            batch.clear();
+        }
+    }
+    
+    
+    /**
+     * Hands the queue to a verifier thread, unless a thread is already 
+     * draining it
+     */
+    private void schedule()
+    {
+        if (scheduled.compareAndSet(false, true))
+        {
+            verifiers.execute(this);
+        }
+    }
+    
+    
+    /**
+     * Discards the signatures queued without calling back
+     */
+    private void discard()
+    {
+        while (queue.poll() != null)
+        {
+            pending.decrementAndGet();
+        }
+    }
+    
+    
+    /**
+     * A queued signature and its callback
+     */
+    private static class Entry
+    {
+        private final SignedDigest signed;
+        private final Callback callback;
+        
+        public Entry(SignedDigest signed, Callback callback)
+        {
+            this.signed = signed;
+            this.callback = callback;
+        }
+    }
+}
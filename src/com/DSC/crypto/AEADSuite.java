@@ -0,0 +1,188 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+
+/**
+ * An AEAD cipher suite provided by the platform JCE provider, the message is
+ * encrypted and authenticated in a single pass. AES-GCM uses the AES-NI and
+ * carry-less multiply instructions where the JVM supports them.
+ */
+public class AEADSuite implements CipherSuite
+{
+    public static final byte AES_GCM_ID = 0x02;
+    public static final byte CHACHA20_POLY1305_ID = 0x03;
+    
+    private static final int IV_SIZE = 12;
+    
+    private final byte id;
+    private final String name;
+    private final String transformation;
+    private final String algorithm;
+    private final int keySize;
+    private final byte[] aad;
+    private final ThreadLocal<javax.crypto.Cipher> encryptCipher;
+    private final ThreadLocal<javax.crypto.Cipher> decryptCipher;
+    
+    
+    /**
+     * @return The AES-128-GCM cipher suite
+     */
+    public static AEADSuite aesGCM()
+    {
+        return new AEADSuite(AES_GCM_ID, "AES-GCM", "AES/GCM/NoPadding", "AES", 16);
+    }
+    
+    
+    /**
+     * @return The ChaCha20-Poly1305 cipher suite
+     */
+    public static AEADSuite chaCha20Poly1305()
+    {
+        return new AEADSuite(CHACHA20_POLY1305_ID, "ChaCha20-Poly1305", "ChaCha20-Poly1305", "ChaCha20", 32);
+    }
+    
+    
+    private AEADSuite(byte id, String name, String transformation, String algorithm, int keySize)
+    {
+        this.id = id;
+        this.name = name;
+        this.transformation = transformation;
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.aad = new byte[] { id };
+        
+        /* 
+         * Cipher instances are expensive to look up, keep one per thread for each
+         * direction since providers refuse to re-initialize with the same key and IV
+         */
+        this.encryptCipher = newCipher(transformation);
+        this.decryptCipher = newCipher(transformation);
+    }
+    
+    
+    private static ThreadLocal<javax.crypto.Cipher> newCipher(final String transformation)
+    {
+        return new ThreadLocal<javax.crypto.Cipher>() {
+            @Override
+            protected javax.crypto.Cipher initialValue()
+            {
+                try
+                {
+                    return javax.crypto.Cipher.getInstance(transformation);
+                }
+                catch (GeneralSecurityException e)
+                {
+                    return null;
+                }
+            }
+        };
+    }
+    
+    public byte getId()
+    {
+        return this.id;
+    }
+    
+    public String getName()
+    {
+        return this.name;
+    }
+    
+    public int getKeySize()
+    {
+        return this.keySize;
+    }
+    
+    public String getKeyAlgorithm()
+    {
+        return this.algorithm;
+    }
+    
+    public boolean isAvailable()
+    {
+        return this.encryptCipher.get() != null;
+    }
+    
+    public int encrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset)
+    {
+        try
+        {
+            /* The tag is appended to the ciphertext */
+            javax.crypto.Cipher aead = init(javax.crypto.Cipher.ENCRYPT_MODE, keys, IV, IVOffset);
+            return aead.doFinal(in, inOffset, length, out, outOffset);
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException(this.name + " encryption failed!", e);
+        }
+    }
+    
+    public int decrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset) throws InvalidCipherTextException
+    {
+        try
+        {
+            javax.crypto.Cipher aead = init(javax.crypto.Cipher.DECRYPT_MODE, keys, IV, IVOffset);
+            return aead.doFinal(in, inOffset, length + TAG_SIZE, out, outOffset);
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new InvalidCipherTextException("Message authentication failed!");
+        }
+    }
+    
+    
+    /**
+     * Initializes the cipher for the thread, the suite identifier is
+     * authenticated as additional data so the suite cannot be substituted
+     */
+    private javax.crypto.Cipher init(int mode, ChannelKeys keys, byte[] IV, int IVOffset) 
+            throws GeneralSecurityException
+    {
+        javax.crypto.Cipher aead = (mode == javax.crypto.Cipher.ENCRYPT_MODE) 
+                ? this.encryptCipher.get() 
+                : this.decryptCipher.get();
+        if (aead == null)
+        {
+            throw new GeneralSecurityException(this.transformation + " is not supported!");
+        }
+        
+        AlgorithmParameterSpec param;
+        if (this.id == AES_GCM_ID)
+        {
+            param = new GCMParameterSpec(TAG_SIZE * 8, IV, IVOffset, IV_SIZE);
+        }
+        else
+        {
+            param = new IvParameterSpec(IV, IVOffset, IV_SIZE);
+        }
+        
+        aead.init(mode, keys.getSecretKey(), param);
+        aead.updateAAD(this.aad);
+        return aead;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,369 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Verifies batches of ECDSA signatures over prime curves. The points of this
+ * version of Bouncy Castle are affine, so every point addition and doubling
+ * costs a modular inversion. Instead the double scalar multiplication of each
+ * signature is done with Shamir's trick in Jacobian coordinates, and the 
+ * result is compared to r without converting it back to affine coordinates.
+ * The inversions that remain are shared by the whole batch using Montgomery's
+ * trick, one inversion mod n for every s and one mod p to normalize every 
+ * G + Q used by Shamir's trick.
+ * 
+ * A signature only carries the x coordinate of R, so the signatures cannot
+ * be combined into a single equation, each one is still checked on its own
+ * and the result is exact for every signature in the batch.
+ */
+final class BatchVerifier
+{
+    private final ECDomainParameters params;
+    private final BigInteger n;
+    private final BigInteger p;
+    private final BigInteger a;
+    private final BigInteger[] G;
+    
+    
+    private BatchVerifier(ECDomainParameters params)
+    {
+        this.params = params;
+        this.n = params.getN();
+        this.p = ((ECCurve.Fp) params.getCurve()).getQ();
+        this.a = params.getCurve().getA().toBigInteger();
+        this.G = affine(params.getG());
+    }
+    
+    
+    /**
+     * Verifies the signatures in the batch
+     * @param batch The signed digests
+     * @return True for each signature that is valid, in the order of the batch
+     */
+    static boolean[] verify(List<SignedDigest> batch)
+    {
+        boolean[] valid = new boolean[batch.size()];
+        
+        if (batch.isEmpty())
+        {
+            return valid;
+        }
+        
+        ECDomainParameters params = batch.get(0).getPublicKey().getParameters();
+        if (! (params.getCurve() instanceof ECCurve.Fp))
+        {
+            for (int i = 0; i < valid.length; ++i)
+            {
+                valid[i] = verifySigner(batch.get(i));
+            }
+            return valid;
+        }
+        
+        new BatchVerifier(params).verify(batch, valid);
+        return valid;
+    }
+    
+    
+    private void verify(List<SignedDigest> batch, boolean[] valid)
+    {
+        int size = batch.size();
+        int[] index = new int[size];
+        BigInteger[] r = new BigInteger[size];
+        BigInteger[] s = new BigInteger[size];
+        int count = 0;
+        
+        /* Signatures with values out of range are invalid, other curves are checked alone */
+        for (int i = 0; i < size; ++i)
+        {
+            SignedDigest signed = batch.get(i);
+            ECDomainParameters keyParams = signed.getPublicKey().getParameters();
+            
+            if (! (keyParams.getN().equals(n) && keyParams.getG().equals(params.getG())))
+            {
+                valid[i] = verifySigner(signed);
+                continue;
+            }
+            
+            BigInteger[] signature = signed.getSignature();
+            if (inRange(signature[0]) && inRange(signature[1]))
+            {
+                index[count] = i;
+                r[count] = signature[0];
+                s[count] = signature[1];
+                ++count;
+            }
+        }
+        
+        BigInteger[] w = invertAll(s, count, n);
+        
+        /* The table for Shamir's trick: Q and G + Q, normalized together */
+        BigInteger[][] Q = new BigInteger[count][];
+        BigInteger[][] GQ = new BigInteger[count][];
+        BigInteger[] Z = new BigInteger[count];
+        int finite = 0;
+        for (int j = 0; j < count; ++j)
+        {
+            Q[j] = affine(batch.get(index[j]).getPublicKey().getQ());
+            GQ[j] = add(new BigInteger[] { Q[j][0], Q[j][1], BigInteger.ONE }, G);
+            if (GQ[j][2].signum() != 0)
+            {
+                Z[finite++] = GQ[j][2];
+            }
+        }
+        
+        BigInteger[] zInv = invertAll(Z, finite, p);
+        for (int j = 0, k = 0; j < count; ++j)
+        {
+            if (GQ[j][2].signum() == 0)
+            {
+                GQ[j] = null;
+                continue;
+            }
+            BigInteger zInv2 = mul(zInv[k], zInv[k]);
+            GQ[j] = new BigInteger[] { mul(GQ[j][0], zInv2), mul(GQ[j][1], mul(zInv2, zInv[k])) };
+            ++k;
+        }
+        
+        /* R = u1 G + u2 Q, the signature is valid if the x coordinate of R is r mod n */
+        for (int j = 0; j < count; ++j)
+        {
+            BigInteger e = calculateE(batch.get(index[j]).getDigest());
+            BigInteger u1 = e.multiply(w[j]).mod(n);
+            BigInteger u2 = r[j].multiply(w[j]).mod(n);
+            
+            BigInteger[] R = shamir(u1, u2, Q[j], GQ[j]);
+            valid[index[j]] = matches(R, r[j]);
+        }
+    }
+    
+    
+    /**
+     * Returns u1 G + u2 Q in Jacobian coordinates
+     * @param GQ The affine point G + Q, or null if it is the point at infinity
+     */
+    private BigInteger[] shamir(BigInteger u1, BigInteger u2, BigInteger[] Q, BigInteger[] GQ)
+    {
+        BigInteger[] R = infinity();
+        
+        for (int i = Math.max(u1.bitLength(), u2.bitLength()) - 1; i >= 0; --i)
+        {
+            R = twice(R);
+            
+            boolean b1 = u1.testBit(i);
+            boolean b2 = u2.testBit(i);
+            if (b1 && b2)
+            {
+                if (GQ != null)
+                {
+                    R = add(R, GQ);
+                }
+            }
+            else if (b1)
+            {
+                R = add(R, G);
+            }
+            else if (b2)
+            {
+                R = add(R, Q);
+            }
+        }
+        return R;
+    }
+    
+    
+    /**
+     * Returns true if the x coordinate of the Jacobian point is r mod n, 
+     * x = X / Z^2 so X is compared to r Z^2 instead
+     */
+    private boolean matches(BigInteger[] R, BigInteger r)
+    {
+        if (R[2].signum() == 0)
+        {
+            return false;
+        }
+        
+        BigInteger ZZ = mul(R[2], R[2]);
+        for (BigInteger x = r; x.compareTo(p) < 0; x = x.add(n))
+        {
+            if (mul(x, ZZ).equals(R[0]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Doubles the Jacobian point, dbl-2007-bl
+     */
+    private BigInteger[] twice(BigInteger[] P)
+    {
+        if (P[2].signum() == 0 || P[1].signum() == 0)
+        {
+            return infinity();
+        }
+        
+        BigInteger XX = mul(P[0], P[0]);
+        BigInteger YY = mul(P[1], P[1]);
+        BigInteger YYYY = mul(YY, YY);
+        BigInteger ZZ = mul(P[2], P[2]);
+        BigInteger S = mod(square(P[0].add(YY)).subtract(XX).subtract(YYYY).shiftLeft(1));
+        BigInteger M = mod(XX.multiply(BigInteger.valueOf(3)).add(a.multiply(mul(ZZ, ZZ))));
+        BigInteger T = mod(M.multiply(M).subtract(S.shiftLeft(1)));
+        BigInteger Y3 = mod(M.multiply(S.subtract(T)).subtract(YYYY.shiftLeft(3)));
+        BigInteger Z3 = mod(square(P[1].add(P[2])).subtract(YY).subtract(ZZ));
+        
+        return new BigInteger[] { T, Y3, Z3 };
+    }
+    
+    
+    /**
+     * Adds the affine point to the Jacobian point, madd-2007-bl
+     */
+    private BigInteger[] add(BigInteger[] P, BigInteger[] A)
+    {
+        if (P[2].signum() == 0)
+        {
+            return new BigInteger[] { A[0], A[1], BigInteger.ONE };
+        }
+        
+        BigInteger Z1Z1 = mul(P[2], P[2]);
+        BigInteger U2 = mul(A[0], Z1Z1);
+        BigInteger S2 = mul(A[1], mul(P[2], Z1Z1));
+        BigInteger H = mod(U2.subtract(P[0]));
+        BigInteger rr = mod(S2.subtract(P[1]).shiftLeft(1));
+        
+        if (H.signum() == 0)
+        {
+            return rr.signum() == 0 ? twice(P) : infinity();
+        }
+        
+        BigInteger HH = mul(H, H);
+        BigInteger I = mod(HH.shiftLeft(2));
+        BigInteger J = mul(H, I);
+        BigInteger V = mul(P[0], I);
+        BigInteger X3 = mod(rr.multiply(rr).subtract(J).subtract(V.shiftLeft(1)));
+        BigInteger Y3 = mod(rr.multiply(V.subtract(X3)).subtract(P[1].multiply(J).shiftLeft(1)));
+        BigInteger Z3 = mod(square(P[2].add(H)).subtract(Z1Z1).subtract(HH));
+        
+        return new BigInteger[] { X3, Y3, Z3 };
+    }
+    
+    
+    /**
+     * Inverts the first count values with a single modular inversion
+     */
+    private static BigInteger[] invertAll(BigInteger[] values, int count, BigInteger modulus)
+    {
+        BigInteger[] inverse = new BigInteger[count];
+        
+        if (count == 0)
+        {
+            return inverse;
+        }
+        
+        /* Products of the values so far, then unwind from the inverse of the product */
+        BigInteger[] products = new BigInteger[count];
+        products[0] = values[0];
+        for (int i = 1; i < count; ++i)
+        {
+            products[i] = products[i - 1].multiply(values[i]).mod(modulus);
+        }
+        
+        BigInteger inv = products[count - 1].modInverse(modulus);
+        for (int i = count - 1; i > 0; --i)
+        {
+            inverse[i] = inv.multiply(products[i - 1]).mod(modulus);
+            inv = inv.multiply(values[i]).mod(modulus);
+        }
+        inverse[0] = inv;
+        return inverse;
+    }
+    
+    
+    /**
+     * Converts the digest to an integer the same way as ECDSASigner
+     */
+    private BigInteger calculateE(byte[] digest)
+    {
+        int log2n = n.bitLength();
+        int digestBitLength = digest.length * 8;
+        BigInteger e = new BigInteger(1, digest);
+        
+        if (log2n < digestBitLength)
+        {
+            e = e.shiftRight(digestBitLength - log2n);
+        }
+        return e;
+    }
+    
+    
+    private boolean inRange(BigInteger value)
+    {
+        return value.signum() > 0 && value.compareTo(n) < 0;
+    }
+    
+    
+    private BigInteger mul(BigInteger x, BigInteger y)
+    {
+        return x.multiply(y).mod(p);
+    }
+    
+    
+    private BigInteger mod(BigInteger x)
+    {
+        return x.mod(p);
+    }
+    
+    
+    private static BigInteger square(BigInteger x)
+    {
+        return x.multiply(x);
+    }
+    
+    
+    private static BigInteger[] infinity()
+    {
+        return new BigInteger[] { BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO };
+    }
+    
+    
+    private static BigInteger[] affine(ECPoint point)
+    {
+        return new BigInteger[] { point.getX().toBigInteger(), point.getY().toBigInteger() };
+    }
+    
+    
+    /**
+     * Verifies a signature alone using ECDSASigner
+     */
+    private static boolean verifySigner(SignedDigest signed)
+    {
+        ECDSASigner ecdsa = new ECDSASigner();
+        ecdsa.init(false, signed.getPublicKey());
+        return ecdsa.verifySignature(signed.getDigest(), signed.getSignature()[0], signed.getSignature()[1]);
+    }
+}
@@ -0,0 +1,272 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+
+/**
+ * The keys for a channel, derived once for each epoch from the ratcheted
+ * network key and the channel passphrase.
+ * 
+ * The encryption key is sized for the cipher suite of the channel and is
+ * kept as both a BouncyCastle and JCE key so no key objects are created
+ * per message.
+ * 
+ * The encryption and HMAC keys are derived using HKDF with SHA-256, and the
+ * HMAC-MD5 inner and outer digest states are computed once from the HMAC key
+ * so that each message only copies the keyed state rather than re-running
+ * the HMAC key schedule.
+ */
+public class ChannelKeys
+{
+    public static final int HMAC_SIZE = 16;
+    
+    private static final int HMAC_KEY_SIZE = 32;
+    private static final int BLOCK_SIZE = 64;           // MD5 block size
+    private static final byte IPAD = (byte) 0x36;
+    private static final byte OPAD = (byte) 0x5C;
+    
+    private final CipherSuite suite;
+    private final byte[] encryptionKey;
+    private final KeyParameter keyParameter;
+    private final SecretKeySpec secretKey;
+    private final MD5Digest innerState;
+    private final MD5Digest outerState;
+    private final ThreadLocal<HMACState> hmacState;
+    
+    
+    /**
+     * Derives the channel keys from the network key and passphrase
+     * @param symmetricKey The network key
+     * @param passphrase The channel passphrase
+     * @param suite The cipher suite used by the channel
+     */
+    public ChannelKeys(byte[] symmetricKey, String passphrase, CipherSuite suite)
+    {
+        this.suite = suite;
+        this.encryptionKey = deriveKey(symmetricKey, passphrase, "DSC encryption key", suite.getKeySize());
+        this.keyParameter = new KeyParameter(this.encryptionKey);
+        this.secretKey = new SecretKeySpec(this.encryptionKey, suite.getKeyAlgorithm());
+        byte[] hmacKey = deriveKey(symmetricKey, passphrase, "DSC HMAC key", HMAC_KEY_SIZE);
+        
+        /* Pre-compute the digest states after absorbing the padded HMAC key */
+        byte[] pad = new byte[BLOCK_SIZE];
+        
+        this.innerState = new MD5Digest();
+        for (int i = 0; i < BLOCK_SIZE; ++i)
+        {
+            pad[i] = (byte) ((i < hmacKey.length ? hmacKey[i] : 0) ^ IPAD);
+        }
+        this.innerState.update(pad, 0, BLOCK_SIZE);
+        
+        this.outerState = new MD5Digest();
+        for (int i = 0; i < BLOCK_SIZE; ++i)
+        {
+            pad[i] = (byte) ((i < hmacKey.length ? hmacKey[i] : 0) ^ OPAD);
+        }
+        this.outerState.update(pad, 0, BLOCK_SIZE);
+        
+        this.hmacState = new ThreadLocal<HMACState>() {
+            @Override
+            protected HMACState initialValue()
+            {
+                return new HMACState();
+            }
+        };
+    }
+    
+    
+    /**
+     * @return The cipher suite used by the channel
+     */
+    public CipherSuite getSuite()
+    {
+        return this.suite;
+    }
+    
+    
+    /**
+     * @return The key used to encrypt messages on the channel
+     */
+    public byte[] getEncryptionKey()
+    {
+        return this.encryptionKey;
+    }
+    
+    
+    /**
+     * @return The encryption key as a BouncyCastle key parameter
+     */
+    public KeyParameter getKeyParameter()
+    {
+        return this.keyParameter;
+    }
+    
+    
+    /**
+     * @return The encryption key as a JCE secret key
+     */
+    public SecretKeySpec getSecretKey()
+    {
+        return this.secretKey;
+    }
+    
+    
+    /**
+     * Generates the HMAC for the data
+     * @param data The data to authenticate
+     * @return The HMAC
+     */
+    public byte[] generateHMAC(byte[] data)
+    {
+        byte[] HMAC = new byte[HMAC_SIZE];
+        generateHMAC(data, 0, data.length, HMAC, 0);
+        return HMAC;
+    }
+    
+    
+    /**
+     * Generates the HMAC for the data and writes it into the output provided
+     * @param data The buffer containing the data to authenticate
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     * @param out The output buffer for the HMAC
+     * @param outOffset The offset in the output buffer to write the HMAC at
+     */
+    public void generateHMAC(byte[] data, int offset, int length, byte[] out, int outOffset)
+    {
+        generateHMAC(data, offset, 0, data, offset, length, out, outOffset);
+    }
+    
+    
+    /**
+     * Generates the HMAC for the IV followed by the data and writes it into
+     * the output provided, so that the IV cannot be changed either
+     * @param IV The buffer containing the IV
+     * @param IVOffset The offset of the IV in the buffer
+     * @param IVLength The length of the IV
+     * @param data The buffer containing the data to authenticate
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     * @param out The output buffer for the HMAC
+     * @param outOffset The offset in the output buffer to write the HMAC at
+     */
+    public void generateHMAC(byte[] IV, int IVOffset, int IVLength, byte[] data, int offset, int length, 
+            byte[] out, int outOffset)
+    {
+        HMACState state = hmacState.get();
+        
+        /* H(K ^ opad || H(K ^ ipad || IV || data)) starting from the keyed states */
+        state.inner.reset(innerState);
+        state.inner.update(IV, IVOffset, IVLength);
+        state.inner.update(data, offset, length);
+        state.inner.doFinal(state.innerHash, 0);
+        
+        state.outer.reset(outerState);
+        state.outer.update(state.innerHash, 0, HMAC_SIZE);
+        state.outer.doFinal(out, outOffset);
+    }
+    
+    
+    /**
+     * Verifies the HMAC received for the data
+     * @param data The buffer containing the data the HMAC was generated for
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     * @param HMAC The buffer containing the HMAC received
+     * @param HMACOffset The offset of the HMAC in the buffer
+     * @return True if the HMAC is valid
+     * @throws InvalidCipherTextException if the HMAC is not valid
+     */
+    public boolean verifyHMAC(byte[] data, int offset, int length, byte[] HMAC, int HMACOffset) 
+            throws InvalidCipherTextException
+    {
+        return verifyHMAC(data, offset, 0, data, offset, length, HMAC, HMACOffset);
+    }
+    
+    
+    /**
+     * Verifies the HMAC received for the IV followed by the data
+     * @param IV The buffer containing the IV
+     * @param IVOffset The offset of the IV in the buffer
+     * @param IVLength The length of the IV
+     * @param data The buffer containing the data the HMAC was generated for
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     * @param HMAC The buffer containing the HMAC received
+     * @param HMACOffset The offset of the HMAC in the buffer
+     * @return True if the HMAC is valid
+     * @throws InvalidCipherTextException if the HMAC is not valid
+     */
+    public boolean verifyHMAC(byte[] IV, int IVOffset, int IVLength, byte[] data, int offset, int length, 
+            byte[] HMAC, int HMACOffset) throws InvalidCipherTextException
+    {
+        HMACState state = hmacState.get();
+        generateHMAC(IV, IVOffset, IVLength, data, offset, length, state.expected, 0);
+        
+        /* Compare in constant time */
+        int diff = 0;
+        for (int i = 0; i < HMAC_SIZE; ++i)
+        {
+            diff |= HMAC[HMACOffset + i] ^ state.expected[i];
+        }
+        
+        if (diff == 0)
+        {
+            return true;
+        }
+        else
+        {
+            throw new InvalidCipherTextException("Message HMAC failed!");
+        }
+    }
+    
+    
+    /**
+     * Derives a key from the network key and passphrase using HKDF
+     */
+    static byte[] deriveKey(byte[] symmetricKey, String passphrase, String info, int size)
+    {
+        byte[] key = new byte[size];
+        
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(symmetricKey, passphrase.getBytes(), info.getBytes()));
+        hkdf.generateBytes(key, 0, size);
+        
+        return key;
+    }
+    
+    
+    /**
+     * The working digests and buffers for each thread
+     */
+    private static class HMACState
+    {
+        private final MD5Digest inner = new MD5Digest();
+        private final MD5Digest outer = new MD5Digest();
+        private final byte[] innerHash = new byte[HMAC_SIZE];
+        private final byte[] expected = new byte[HMAC_SIZE];
+    }
+}
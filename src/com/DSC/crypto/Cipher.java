@@ -21,14 +21,12 @@
  */
 package com.DSC.crypto;
 
-import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.Arrays;
 
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.StreamCipher;
-import org.bouncycastle.crypto.agreement.ECDHCBasicAgreement;
-import org.bouncycastle.crypto.digests.MD5Digest;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.engines.Grain128Engine;
 import org.bouncycastle.crypto.engines.IESEngine;
@@ -40,33 +38,132 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
 
 public abstract class Cipher
 {
+    private static final int GRAIN_IV_SIZE = 12;
+    private static final int KEY_NONCE_SIZE = 16;
+    
+    /* Engines are re-initialized for every message, keep one per thread */
+    private static final ThreadLocal<StreamCipher> grainEngine = new ThreadLocal<StreamCipher>() {
+        @Override
+        protected StreamCipher initialValue()
+        {
+            return new Grain128Engine();
+        }
+    };
+    
+    private static final ThreadLocal<IESState> iesState = new ThreadLocal<IESState>() {
+        @Override
+        protected IESState initialValue()
+        {
+            return new IESState();
+        }
+    };
+    
+    /* The supported cipher suites, in order of preference */
+    private static final CipherSuite[] suites = {
+        AEADSuite.aesGCM(),
+        AEADSuite.chaCha20Poly1305(),
+        new Grain128HMACSuite()
+    };
+    
+    
     /**
-     * 
+     * Returns the cipher suite with the identifier from a message header
+     * @param id The cipher suite identifier
+     * @return The cipher suite, or null if the suite is not supported
+     */
+    public static CipherSuite getSuite(byte id)
+    {
+        for (CipherSuite suite : suites)
+        {
+            if (suite.getId() == id && suite.isAvailable())
+            {
+                return suite;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns the cipher suite with the name provided, ignoring case
+     * @param name The name of the cipher suite
+     * @return The cipher suite, or null if the suite is not supported
+     */
+    public static CipherSuite getSuite(String name)
+    {
+        for (CipherSuite suite : suites)
+        {
+            if (suite.getName().equalsIgnoreCase(name) && suite.isAvailable())
+            {
+                return suite;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns the preferred cipher suite supported by the platform
+     * @return The default cipher suite
+     */
+    public static CipherSuite getDefaultSuite()
+    {
+        for (CipherSuite suite : suites)
+        {
+            if (suite.isAvailable())
+            {
+                return suite;
+            }
+        }
+        return suites[suites.length - 1];
+    }
+    
+    
+    /**
+     * Returns the names of the cipher suites supported by the platform
+     * @return The names of the supported cipher suites
+     */
+    public static String getSuiteNames()
+    {
+        StringBuilder names = new StringBuilder();
+        
+        for (CipherSuite suite : suites)
+        {
+            if (suite.isAvailable())
+            {
+                names.append(names.length() > 0 ? ", " : "").append(suite.getName());
+            }
+        }
+        return names.toString();
+    }
+    
+    
+    /**
+     * Encrypts the key for the peer, the key is prefixed with a random nonce
+     * that is included in the IES key derivation. The shared secret of a pair
+     * of keys never changes, so without the nonce every key sent to the same
+     * peer would be encrypted with the same key stream.
      * @param priKey
      * @param pubKey
      * @param passphrase
      * @param data
-     * @return
+     * @return The nonce followed by the encrypted key
      * @throws InvalidCipherTextException
      */
     public static byte[] encryptKey(CipherParameters priKey, CipherParameters pubKey, 
             String passphrase, byte[] data) throws InvalidCipherTextException
     {
-        /* Initialize IESEngine in stream mode */
-        IESEngine engine = new IESEngine(
-                                    new ECDHCBasicAgreement(),
-                                    new KDF2BytesGenerator(new SHA256Digest()),
-                                    new HMac(new SHA256Digest()));
+        IESState state = iesState.get();
+        byte[] nonce = new byte[KEY_NONCE_SIZE];
+        state.random.nextBytes(nonce);
         
-        /* Set the IESEngine cipher parameters as the passphrase and passphrase reversed */
-        IESParameters param = new IESParameters(
-                                    passphrase.getBytes(), 
-                                    new StringBuilder(passphrase).reverse().toString().getBytes(),
-                                    engine.getMac().getMacSize() * 8);
+        /* Initialize the thread's IESEngine and encrypt the key */
+        state.engine.init(true, priKey, pubKey, state.getParameters(passphrase, nonce, 0));
+        byte[] encrypted = state.engine.processBlock(data, 0, data.length);
         
-        /* Initialize the engine and encrypt the key */
-        engine.init(true, priKey, pubKey, param);
-        return engine.processBlock(data, 0, data.length);
+        byte[] out = Arrays.copyOf(nonce, KEY_NONCE_SIZE + encrypted.length);
+        System.arraycopy(encrypted, 0, out, KEY_NONCE_SIZE, encrypted.length);
+        return out;
     }
     
     
@@ -75,28 +172,22 @@ public abstract class Cipher
      * @param priKey
      * @param pubKey
      * @param passphrase
-     * @param data
+     * @param data The nonce followed by the encrypted key
      * @return
      * @throws InvalidCipherTextException
      */
     public static byte[] decryptKey(CipherParameters priKey, CipherParameters pubKey, 
             String passphrase, byte[] data) throws InvalidCipherTextException
     {
-        /* IESEngine in stream mode */
-        IESEngine engine = new IESEngine(
-                                    new ECDHCBasicAgreement(),
-                                    new KDF2BytesGenerator(new SHA256Digest()),
-                                    new HMac(new SHA256Digest()));
-        
-        /* Set the IESEngine cipher parameters as the passphrase and passphrase reversed */
-        IESParameters param = new IESParameters(
-                                    passphrase.getBytes(), 
-                                    new StringBuilder(passphrase).reverse().toString().getBytes(),
-                                    engine.getMac().getMacSize() * 8);
+        if (data.length <= KEY_NONCE_SIZE)
+        {
+            throw new InvalidCipherTextException("Encrypted key is too short!");
+        }
         
-        /* Initialize the engine and decrypt the key */
-        engine.init(false, priKey, pubKey, param);
-        return engine.processBlock(data, 0, data.length);
+        /* Initialize the thread's IESEngine and decrypt the key */
+        IESState state = iesState.get();
+        state.engine.init(false, priKey, pubKey, state.getParameters(passphrase, data, 0));
+        return state.engine.processBlock(data, KEY_NONCE_SIZE, data.length - KEY_NONCE_SIZE);
     }
     
     
@@ -109,17 +200,35 @@ public abstract class Cipher
     public static byte[] encryptMsg(byte[] symmetricKey, byte[] IV, byte[] data)
     {
         byte[] cipherText = new byte[data.length];
-        
-        /* Grain stream cipher */
-        StreamCipher grain = new Grain128Engine();
-        
+        encryptMsg(new KeyParameter(symmetricKey), IV, 0, data, 0, data.length, cipherText, 0);
+        return cipherText;
+    }
+    
+    
+    /**
+     * Encrypts the data into the output buffer provided using the thread's 
+     * Grain-128 engine, no buffers are allocated
+     * @param key The symmetric key
+     * @param IV The buffer containing the IV
+     * @param IVOffset The offset of the IV in the buffer
+     * @param in The buffer containing the plaintext
+     * @param inOffset The offset of the plaintext
+     * @param length The length of the plaintext
+     * @param out The output buffer for the ciphertext
+     * @param outOffset The offset in the output buffer
+     * @return The number of bytes written
+     */
+    public static int encryptMsg(KeyParameter key, byte[] IV, int IVOffset, byte[] in, int inOffset, 
+            int length, byte[] out, int outOffset)
+    {
         /* Initialize stream cipher */
-        ParametersWithIV param = new ParametersWithIV(new KeyParameter(symmetricKey), IV);
-        grain.init(true, param);
+        StreamCipher grain = grainEngine.get();
+        grain.init(true, new ParametersWithIV(key, IV, IVOffset, GRAIN_IV_SIZE));
         
         /* Encrypt the message */
-        grain.processBytes(data, 0, data.length, cipherText, 0);
-        return cipherText;
+        grain.processBytes(in, inOffset, length, out, outOffset);
+        alignGrain(grain, length);
+        return length;
     }
     
     
@@ -131,75 +240,90 @@ public abstract class Cipher
      */
     public static byte[] decryptMsg(byte[] symmetricKey, byte[] IV, byte[] data)
     {
-        byte[] cipherText = new byte[data.length];
-        
-        /* Grain stream cipher */
-        StreamCipher grain = new Grain128Engine();
-        
+        byte[] plainText = new byte[data.length];
+        decryptMsg(new KeyParameter(symmetricKey), IV, 0, data, 0, data.length, plainText, 0);
+        return plainText;
+    }
+    
+    
+    /**
+     * Decrypts the data into the output buffer provided using the thread's 
+     * Grain-128 engine, no buffers are allocated
+     * @param key The symmetric key
+     * @param IV The buffer containing the IV
+     * @param IVOffset The offset of the IV in the buffer
+     * @param in The buffer containing the ciphertext
+     * @param inOffset The offset of the ciphertext
+     * @param length The length of the ciphertext
+     * @param out The output buffer for the plaintext
+     * @param outOffset The offset in the output buffer
+     * @return The number of bytes written
+     */
+    public static int decryptMsg(KeyParameter key, byte[] IV, int IVOffset, byte[] in, int inOffset, 
+            int length, byte[] out, int outOffset)
+    {
         /* Initialize stream cipher */
-        ParametersWithIV param = new ParametersWithIV(new KeyParameter(symmetricKey), IV);
-        grain.init(false, param);
+        StreamCipher grain = grainEngine.get();
+        grain.init(false, new ParametersWithIV(key, IV, IVOffset, GRAIN_IV_SIZE));
         
         /* Decrypt the message */
-        grain.processBytes(data, 0, data.length, cipherText, 0);
-        return cipherText;
+        grain.processBytes(in, inOffset, length, out, outOffset);
+        alignGrain(grain, length);
+        return length;
     }
     
     
     /**
-     * 
-     * @param passphrase
-     * @param data
-     * @return
+     * Grain128Engine.init() does not reset the index into the current keystream
+     * word, so the reused engine is left word aligned after each message to
+     * ensure the next message starts with a fresh keystream word
      */
-    public static BigInteger[] generateHMAC(String passphrase, byte[] data)
+    private static void alignGrain(StreamCipher grain, int length)
     {
-       HMac hmac = new HMac(new MD5Digest());
-       byte[] buf = new byte[hmac.getMacSize()];
-       BigInteger[] hmacBigInt = new BigInteger[1];
-       
-       /* Initializes and generate HMAC for message */
-       hmac.init(new KeyParameter(passphrase.getBytes()));
-       hmac.update(data, 0, data.length);
-       hmac.doFinal(buf, 0);
-       
-       /* Convert the HMAC to a big integer representation */
-       hmacBigInt[0] = new BigInteger(buf);
-       return hmacBigInt;
+        for (int i = length % 4; i != 0 && i < 4; ++i)
+        {
+            grain.returnByte((byte) 0);
+        }
     }
     
     
     /**
-     * 
-     * @param passphrase
-     * @param HMAC
-     * @param data
-     * @return
-     * @throws InvalidCipherTextException
+     * The IESEngine for a thread and the parameters for the last passphrase used
      */
-    public static boolean verifyHMAC(String passphrase, BigInteger[] HMAC, byte[] data) 
-            throws InvalidCipherTextException
+    private static class IESState
     {
-        HMac hmac = new HMac(new MD5Digest());
-        byte[] expHMAC = new byte[hmac.getMacSize()];
-        byte[] recHMAC = new byte[hmac.getMacSize()];
-        
-        /* Initializes and generate the expected HMAC for message */
-        hmac.init(new KeyParameter(passphrase.getBytes()));
-        hmac.update(data, 0, data.length);
-        hmac.doFinal(expHMAC, 0);
-        
-        /* Convert the received HMAC to a byte representation */
-        recHMAC = HMAC[0].toByteArray();
+        /* IESEngine in stream mode, the shared secret of each pair of keys is cached */
+        private final IESEngine engine = new IESEngine(
+                                    new SharedSecretCache(),
+                                    new KDF2BytesGenerator(new SHA256Digest()),
+                                    new HMac(new SHA256Digest()));
+        private final SecureRandom random = new SecureRandom();
+        private String passphrase;
+        private byte[] derivation;
+        private IESParameters param;
         
-        /* Compare the HMAC received to the expected HMAC */
-        if (Arrays.equals(expHMAC, recHMAC))
-        {
-            return true;
-        }
-        else
+        /**
+         * Returns the IESEngine cipher parameters for the passphrase and nonce,
+         * the parameters are the passphrase followed by the nonce and the
+         * passphrase reversed
+         */
+        private IESParameters getParameters(String passphrase, byte[] nonce, int nonceOffset)
         {
-            throw new InvalidCipherTextException("Message HMAC failed!");
+            if (! passphrase.equals(this.passphrase))
+            {
+                byte[] encoded = passphrase.getBytes();
+                this.derivation = Arrays.copyOf(encoded, encoded.length + KEY_NONCE_SIZE);
+                this.param = new IESParameters(
+                                    this.derivation, 
+                                    new StringBuilder(passphrase).reverse().toString().getBytes(),
+                                    engine.getMac().getMacSize() * 8);
+                this.passphrase = passphrase;
+            }
+            
+            /* The parameters hold the derivation, only the nonce is replaced */
+            System.arraycopy(nonce, nonceOffset, this.derivation, this.derivation.length - KEY_NONCE_SIZE, 
+                    KEY_NONCE_SIZE);
+            return this.param;
         }
     }
 }
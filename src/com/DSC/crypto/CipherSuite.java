@@ -0,0 +1,96 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+
+/**
+ * A cipher suite used to encrypt and authenticate the messages sent on a
+ * channel. The suite is chosen when the channel is created and identified
+ * in the header of every encrypted message.
+ */
+public interface CipherSuite
+{
+    /* The size of the authentication tag produced by every suite */
+    public static final int TAG_SIZE = 16;
+    
+    /**
+     * @return The identifier of the suite used in the message header
+     */
+    public byte getId();
+    
+    
+    /**
+     * @return The name of the suite
+     */
+    public String getName();
+    
+    
+    /**
+     * @return The size of the encryption key in bytes
+     */
+    public int getKeySize();
+    
+    
+    /**
+     * @return True if the suite is supported by the platform
+     */
+    public boolean isAvailable();
+    
+    
+    /**
+     * @return The JCE algorithm name of the encryption key
+     */
+    public String getKeyAlgorithm();
+    
+    
+    /**
+     * Encrypts and authenticates the data, the ciphertext followed by the
+     * authentication tag is written to the output so it can be encrypted
+     * directly into the message buffer
+     * @param keys The channel keys
+     * @param IV The buffer containing the unique IV for the message
+     * @param IVOffset The offset of the IV in the buffer
+     * @param in The buffer containing the plaintext
+     * @param inOffset The offset of the plaintext in the buffer
+     * @param length The length of the plaintext
+     * @param out The output buffer, must have length + TAG_SIZE bytes available
+     * @param outOffset The offset in the output buffer
+     * @return The number of bytes written, length + TAG_SIZE
+     */
+    public int encrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset);
+    
+    
+    /**
+     * Verifies and decrypts the data, the input is the ciphertext followed by
+     * the authentication tag
+     * @param keys The channel keys
+     * @param IV The buffer containing the IV of the message
+     * @param IVOffset The offset of the IV in the buffer
+     * @param in The buffer containing the ciphertext and tag
+     * @param inOffset The offset of the ciphertext in the buffer
+     * @param length The length of the ciphertext, not including the tag
+     * @param out The output buffer for the plaintext
+     * @param outOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws InvalidCipherTextException if the message fails authentication
+     */
+    public int decrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset) throws InvalidCipherTextException;
+}
\ No newline at end of file
@@ -22,10 +22,14 @@
 package com.DSC.crypto;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.crypto.Digest;
 
 public abstract class ECDSA
@@ -35,21 +39,13 @@ public abstract class ECDSA
      * @param priKey The private key used to sign the data
      * @param pubKey The public key to be signed for the authentication request
      * @param passphrase The passphrase used to sign the key for the authentication request
+     * @param flags The handshake options requested, signed so they cannot be altered
      * @return The signature of the public key authentication request
      */
     public static BigInteger[] signAuthRequest(CipherParameters priKey, CipherParameters pubKey, 
-            String passphrase)
+            String passphrase, byte flags)
     {   
-        /* Convert the public key and passphrase to byte arrays */
-        byte[] _pubKey = ECGKeyUtil.encodePubKey(pubKey);
-        byte[] _passphrase = passphrase.getBytes();
-        
-        /* Combine the public key and passphrase */
-        byte[] data = new byte[_pubKey.length + _passphrase.length];
-        System.arraycopy(_pubKey, 0, data, 0, _pubKey.length);
-        System.arraycopy(_passphrase, 0, data, _pubKey.length, _passphrase.length);
-        
-        return sign(priKey, hash(data));
+        return sign(priKey, hash(keyData(pubKey, passphrase, flags)));
     }
     
     
@@ -57,22 +53,31 @@ public abstract class ECDSA
      * 
      * @param pubKey
      * @param passphrase
+     * @param flags The handshake options requested
      * @param signature
      * @return
      */
-    public static boolean verifyAuthRequest(CipherParameters pubKey, String passphrase, 
+    public static boolean verifyAuthRequest(CipherParameters pubKey, String passphrase, byte flags, 
             BigInteger[] signature)
     {   
-        /* Convert the public key and passphrase to byte arrays */
-        byte[] _pubKey = ECGKeyUtil.encodePubKey(pubKey);
-        byte[] _passphrase = passphrase.getBytes();
-        
-        /* Combine the public key and passphrase */
-        byte[] data = new byte[_pubKey.length + _passphrase.length];
-        System.arraycopy(_pubKey, 0, data, 0, _pubKey.length);
-        System.arraycopy(_passphrase, 0, data, _pubKey.length, _passphrase.length);
-        
-        return verify(pubKey, hash(data), signature);
+        return verify(Collections.singletonList(authRequest(pubKey, passphrase, flags, signature)))[0];
+    }
+    
+    
+    /**
+     * Returns the signed digest of an authentication request, so that the 
+     * signature can be verified as part of a batch
+     * @param pubKey The public key of the client that signed the request
+     * @param passphrase The passphrase used to sign the authentication request
+     * @param flags The handshake options requested
+     * @param signature The signature of the authentication request
+     * @return The signed digest
+     */
+    public static SignedDigest authRequest(CipherParameters pubKey, String passphrase, byte flags, 
+            BigInteger[] signature)
+    {
+        return new SignedDigest((ECPublicKeyParameters) pubKey, hash(keyData(pubKey, passphrase, flags)), 
+                signature);
     }
     
     
@@ -137,7 +142,7 @@ public abstract class ECDSA
     public static BigInteger[] signKeyExchange(CipherParameters priKey, CipherParameters pubKey, 
             String passphrase)
     {
-        return signAuthRequest(priKey, pubKey, passphrase);
+        return sign(priKey, hash(keyData(pubKey, passphrase)));
     }
     
     
@@ -151,7 +156,22 @@ public abstract class ECDSA
     public static boolean verifyKeyExchange(CipherParameters pubKey, String passphrase, 
             BigInteger[] signature)
     {
-        return verifyAuthRequest(pubKey, passphrase, signature);
+        return verify(Collections.singletonList(keyExchange(pubKey, passphrase, signature)))[0];
+    }
+    
+    
+    /**
+     * Returns the signed digest of a key exchange request, so that the 
+     * signature can be verified as part of a batch
+     * @param pubKey The public key of the client that signed the request
+     * @param passphrase The passphrase used to sign the key exchange request
+     * @param signature The signature of the key exchange request
+     * @return The signed digest
+     */
+    public static SignedDigest keyExchange(CipherParameters pubKey, String passphrase, 
+            BigInteger[] signature)
+    {
+        return new SignedDigest((ECPublicKeyParameters) pubKey, hash(keyData(pubKey, passphrase)), signature);
     }
     
     
@@ -205,6 +225,164 @@ public abstract class ECDSA
     }
     
     
+    /**
+     * Signs an authentication acknowledge sent along with the encrypted key, 
+     * a single signature covers both for the combined handshake
+     * @param priKey The private key used to sign the data
+     * @param pubKey The public key of the client signing the data
+     * @param authKey The authenticated public key
+     * @param symmetricKey The ENCRYPTED symmetric key
+     * @param passphrase The passphrase used to sign the authentication acknowledge
+     * @return The signature of the authentication acknowledge and key
+     */
+    public static BigInteger[] signAuthKey(CipherParameters priKey, CipherParameters pubKey, 
+            CipherParameters authKey, byte[] symmetricKey, String passphrase)
+    {
+        return sign(priKey, hash(authKeyData(pubKey, authKey, symmetricKey, passphrase)));
+    }
+    
+    
+    /**
+     * Verify an authentication acknowledge sent along with the encrypted key
+     * @param pubKey The public key of the client that signed data
+     * @param authKey The authenticated public key
+     * @param symmetricKey The ENCRYPTED symmetric key
+     * @param passphrase The passphrase used to sign the authentication acknowledge
+     * @param signature The signature of the authentication acknowledge and key
+     * @return True if the signature is valid
+     */
+    public static boolean verifyAuthKey(CipherParameters pubKey, CipherParameters authKey, 
+            byte[] symmetricKey, String passphrase, BigInteger[] signature)
+    {
+        return verify(pubKey, hash(authKeyData(pubKey, authKey, symmetricKey, passphrase)), signature);
+    }
+    
+    
+    /**
+     * Signs a new network key sent to the channel, a single signature covers
+     * the key encrypted for every member
+     * @param priKey The private key used to sign the data
+     * @param pubKey The public key of the client signing the data
+     * @param timestamp The time the key was sent
+     * @param keyIds The key ids of the members the key is encrypted for
+     * @param symmetricKeys The ENCRYPTED symmetric key for each member
+     * @param excludedIds The key ids of the members removed from the channel
+     * @param passphrase The passphrase used to sign the key
+     * @return The signature of the new key
+     */
+    public static BigInteger[] signRekey(CipherParameters priKey, CipherParameters pubKey, long timestamp,
+            long[] keyIds, byte[][] symmetricKeys, long[] excludedIds, String passphrase)
+    {
+        return sign(priKey, hash(rekeyData(pubKey, timestamp, keyIds, symmetricKeys, excludedIds, passphrase)));
+    }
+    
+    
+    /**
+     * Verify a new network key sent to the channel
+     * @param pubKey The public key of the client that signed data
+     * @param timestamp The time the key was sent
+     * @param keyIds The key ids of the members the key is encrypted for
+     * @param symmetricKeys The ENCRYPTED symmetric key for each member
+     * @param excludedIds The key ids of the members removed from the channel
+     * @param passphrase The passphrase used to sign the key
+     * @param signature The signature of the new key
+     * @return True if the signature is valid
+     */
+    public static boolean verifyRekey(CipherParameters pubKey, long timestamp, long[] keyIds, 
+            byte[][] symmetricKeys, long[] excludedIds, String passphrase, BigInteger[] signature)
+    {
+        return verify(pubKey, hash(rekeyData(pubKey, timestamp, keyIds, symmetricKeys, excludedIds, passphrase)), 
+                signature);
+    }
+    
+    
+    /**
+     * Combines the public key, passphrase, and any handshake flags that are
+     * signed for an authentication request or key exchange
+     */
+    private static byte[] keyData(CipherParameters pubKey, String passphrase, byte... flags)
+    {
+        /* Convert the public key and passphrase to byte arrays */
+        byte[] _pubKey = ECGKeyUtil.encodePubKey(pubKey);
+        byte[] _passphrase = passphrase.getBytes();
+
+        /* Combine the public key, passphrase, and flags */
+        byte[] data = new byte[_pubKey.length + _passphrase.length + flags.length];
+        System.arraycopy(_pubKey, 0, data, 0, _pubKey.length);
+        System.arraycopy(_passphrase, 0, data, _pubKey.length, _passphrase.length);
+        System.arraycopy(flags, 0, data, _pubKey.length + _passphrase.length, flags.length);
+
+        return data;
+    }
+
+
+    /**
+     * Combines the public key, timestamp, encrypted keys, excluded members,
+     * and passphrase that are signed for a new network key
+     */
+    private static byte[] rekeyData(CipherParameters pubKey, long timestamp, long[] keyIds, 
+            byte[][] symmetricKeys, long[] excludedIds, String passphrase)
+    {
+        /* Convert the data to byte arrays */
+        byte[] _pubKey = ECGKeyUtil.encodePubKey(pubKey);
+        byte[] _passphrase = passphrase.getBytes();
+        
+        int length = _pubKey.length + 8 + 4 + 8 * excludedIds.length + _passphrase.length;
+        for (byte[] symmetricKey : symmetricKeys)
+        {
+            length += 8 + symmetricKey.length;
+        }
+        
+        /* 
+         * Combine the public key, timestamp, key id and key of each member, 
+         * the excluded members prefixed with their count, and passphrase
+         */
+        ByteBuffer data = ByteBuffer.allocate(length);
+        data.put(_pubKey);
+        data.putLong(timestamp);
+        for (int i = 0; i < keyIds.length; ++i)
+        {
+            data.putLong(keyIds[i]);
+            data.put(symmetricKeys[i]);
+        }
+        data.putInt(excludedIds.length);
+        for (long excludedId : excludedIds)
+        {
+            data.putLong(excludedId);
+        }
+        data.put(_passphrase);
+        
+        return data.array();
+    }
+    
+    
+    /**
+     * Combines the public keys, encrypted key, and passphrase that are signed
+     * for the combined handshake
+     */
+    private static byte[] authKeyData(CipherParameters pubKey, CipherParameters authKey, 
+            byte[] symmetricKey, String passphrase)
+    {
+        /* Convert the data to byte arrays */
+        byte[] _pubKey = ECGKeyUtil.encodePubKey(pubKey);
+        byte[] _authKey = ECGKeyUtil.encodePubKey(authKey);
+        byte[] _passphrase = passphrase.getBytes();
+        
+        /* Combine the public keys, encrypted key, and passphrase */
+        byte[] data = new byte[_pubKey.length + _authKey.length + symmetricKey.length + _passphrase.length];
+        int offset = 0;
+        System.arraycopy(_pubKey, 0, data, offset, _pubKey.length);
+        offset += _pubKey.length;
+        System.arraycopy(_authKey, 0, data, offset, _authKey.length);
+        offset += _authKey.length;
+        System.arraycopy(symmetricKey, 0, data, offset, symmetricKey.length);
+        offset += symmetricKey.length;
+        System.arraycopy(_passphrase, 0, data, offset, _passphrase.length);
+        
+        return data;
+    }
+    
+    
     /**
      * 
      * @param data
@@ -224,16 +402,16 @@ public abstract class ECDSA
     
     
     /**
-     * Sign the data, return the signature
+     * Sign the data, return the signature, the nonce is taken from the pool
+     * precomputed in the background for the curve of the key
      * @param priKey
      * @param data
      * @return
      */
     private static BigInteger[] sign(CipherParameters priKey, byte[] data)
     {
-        ECDSASigner ecdsa = new ECDSASigner();
-        ecdsa.init(true, priKey);
-        return ecdsa.generateSignature(data);
+        ECPrivateKeyParameters key = (ECPrivateKeyParameters) priKey;
+        return NoncePool.get(key.getParameters()).sign(key, data);
     }
     
     
@@ -246,8 +424,19 @@ public abstract class ECDSA
      */
     private static boolean verify(CipherParameters pubKey, byte[] data, BigInteger[] signature)
     {
-        ECDSASigner ecdsa = new ECDSASigner();
-        ecdsa.init(false, pubKey);
-        return ecdsa.verifySignature(data, signature[0], signature[1]);
+        return verify(Collections.singletonList(
+                new SignedDigest((ECPublicKeyParameters) pubKey, data, signature)))[0];
+    }
+    
+    
+    /**
+     * Verifies a batch of signatures, the modular inversions are shared by 
+     * the batch and each signature is checked on its own
+     * @param batch The signed digests to verify
+     * @return True for each signature that is valid, in the order of the batch
+     */
+    public static boolean[] verify(List<SignedDigest> batch)
+    {
+        return BatchVerifier.verify(batch);
     }
 }
@@ -69,6 +69,9 @@ public class ECKey
 	{
 		ECKeyPairGen.init(keyGenParam);
 		ECKeyPair = ECKeyPairGen.generateKeyPair();
+		
+		/* Start precomputing signing nonces before the first handshake */
+		NoncePool.get(((ECKeyGenerationParameters) keyGenParam).getDomainParameters());
 	}
 	
 	 
@@ -0,0 +1,72 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+
+/**
+ * The original cipher suite, messages are encrypted using the Grain-128 
+ * stream cipher and then authenticated using HMAC-MD5 over the IV and the
+ * ciphertext.
+ */
+public class Grain128HMACSuite implements CipherSuite
+{
+    public static final byte ID = 0x01;
+    private static final int IV_SIZE = 12;
+    
+    public byte getId()
+    {
+        return ID;
+    }
+    
+    public String getName()
+    {
+        return "Grain128-HMAC-MD5";
+    }
+    
+    public int getKeySize()
+    {
+        return 16;
+    }
+    
+    public String getKeyAlgorithm()
+    {
+        return "Grain128";
+    }
+    
+    public boolean isAvailable()
+    {
+        return true;
+    }
+    
+    public int encrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset)
+    {
+        Cipher.encryptMsg(keys.getKeyParameter(), IV, IVOffset, in, inOffset, length, out, outOffset);
+        keys.generateHMAC(IV, IVOffset, IV_SIZE, out, outOffset, length, out, outOffset + length);
+        return length + TAG_SIZE;
+    }
+    
+    public int decrypt(ChannelKeys keys, byte[] IV, int IVOffset, byte[] in, int inOffset, int length, 
+            byte[] out, int outOffset) throws InvalidCipherTextException
+    {
+        /* Only decrypt if the message HMAC is valid, the HMAC covers the IV so the counter is authentic */
+        keys.verifyHMAC(IV, IVOffset, IV_SIZE, in, inOffset, length, in, inOffset + length);
+        return Cipher.decryptMsg(keys.getKeyParameter(), IV, IVOffset, in, inOffset, length, out, outOffset);
+    }
+}
\ No newline at end of file
@@ -30,11 +30,21 @@ import org.bouncycastle.crypto.prng.RandomGenerator;
  * ISAAC random number generator that generates random numbers using the
  * ISAAC stream cipher. Currently only ISAAC is supported, ISAAC+ support
  * is planned for future releases.
+ * 
+ * The keystream is generated in bulk into a buffer and random data is served
+ * from the buffer, so generating random data allocates nothing. The generator
+ * is NOT thread safe, concurrent threads must each use their own generator.
  */
 public class ISAACRandomGenerator implements RandomGenerator
 {
+	/* ISAAC generates 256 words of keystream at a time */
+	private static final int BUFFER_SIZE = 1024;
+	
 	private ISAACEngine engine;
 	private byte[] seed;
+	private final byte[] zeros = new byte[BUFFER_SIZE];
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = BUFFER_SIZE;
 	
 	
 	/**
@@ -82,6 +92,7 @@ public class ISAACRandomGenerator implements RandomGenerator
 		
 		// Initialize the stream cipher engine
 		engine.init(true, new KeyParameter(seed));
+		this.position = BUFFER_SIZE;
 	}
 
 	
@@ -116,6 +127,7 @@ public class ISAACRandomGenerator implements RandomGenerator
 		this.seed = newSeed;
 		this.engine.reset();
 		this.engine.init(true, new KeyParameter(newSeed));
+		this.position = BUFFER_SIZE;
 	}
 
 	
@@ -155,6 +167,7 @@ public class ISAACRandomGenerator implements RandomGenerator
 		this.seed = newSeed;
 		this.engine.reset();
 		this.engine.init(true, new KeyParameter(newSeed));
+		this.position = BUFFER_SIZE;
 	}
 
 	
@@ -169,10 +182,7 @@ public class ISAACRandomGenerator implements RandomGenerator
 	 */
 	public void nextBytes(byte[] bytes)
 	{
-		byte[] in = new byte[bytes.length];
-		
-		// Generate the random number and store in output
-		this.engine.processBytes(in, 0, in.length, bytes, 0);
+		nextBytes(bytes, 0, bytes.length);
 	}
 
 	
@@ -189,10 +199,20 @@ public class ISAACRandomGenerator implements RandomGenerator
 	 */
 	public void nextBytes(byte[] bytes, int start, int len)
 	{
-		byte[] in = new byte[len];
-		
-		// Generate the random number and store in output
-		this.engine.processBytes(in, 0, len, bytes, start);
+		while (len > 0)
+		{
+			if (position == BUFFER_SIZE)
+			{
+				refill();
+			}
+			
+			// Copy the random data from the keystream buffer
+			int count = Math.min(len, BUFFER_SIZE - position);
+			System.arraycopy(buffer, position, bytes, start, count);
+			position += count;
+			start += count;
+			len -= count;
+		}
 	}
 	
 	
@@ -206,11 +226,10 @@ public class ISAACRandomGenerator implements RandomGenerator
 	public BigInteger nextBigInteger()
 	{
 		// 256-bit number, this is much larger than long
-		byte[] in = new byte[32];
 		byte[] out = new byte[32];
 		
-		// Generate the random number and return the converted BigInteger number'
-		this.engine.processBytes(in, 0, in.length, out, 0);
+		// Generate the random number and return the converted BigInteger number
+		nextBytes(out, 0, out.length);
 		
 		return new BigInteger(out);
 	}
@@ -225,14 +244,49 @@ public class ISAACRandomGenerator implements RandomGenerator
 	 */
 	public int nextInt()
 	{
-		// 256-bit number, this is much larger than long
-		byte[] in = new byte[32];
-		byte[] out = new byte[32];
-		
-		// Generate the random number and return the converted BigInteger number'
-		this.engine.processBytes(in, 0, in.length, out, 0);
+		return (int) next(4);
+	}
+	
+	
+	/**
+	 * Returns randomly generated data as a long instead of having to always 
+	 * convert manually from bytes.
+	 * 
+	 * @return long A randomly generated number
+	 */
+	public long nextLong()
+	{
+		return next(8);
+	}
+	
+	
+	/**
+	 * Reads the number of bytes of random data from the keystream buffer
+	 * as a big-endian number
+	 */
+	private long next(int bytes)
+	{
+		if (BUFFER_SIZE - position < bytes)
+		{
+			refill();
+		}
 		
-		return new BigInteger(out).intValue();
+		long value = 0;
+		for (int i = 0; i < bytes; ++i)
+		{
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+	
+	
+	/**
+	 * Generates the next block of keystream into the buffer
+	 */
+	private void refill()
+	{
+		this.engine.processBytes(zeros, 0, BUFFER_SIZE, buffer, 0);
+		this.position = 0;
 	}
 	
 	
@@ -243,5 +297,6 @@ public class ISAACRandomGenerator implements RandomGenerator
 	public void reset()
 	{
 	    this.engine.reset();
+	    this.position = BUFFER_SIZE;
 	}
 }
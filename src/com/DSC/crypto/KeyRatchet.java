@@ -0,0 +1,346 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.joda.time.DateTimeUtils;
+
+/**
+ * A hash ratchet over the network key, the channel keys are replaced every
+ * epoch without any messages being sent. Epochs are numbered by the network
+ * time divided by the epoch period, so every member moves to the same epoch
+ * at the same time, and the chain key for the next epoch is derived from the
+ * chain key of the current epoch using HKDF.
+ * 
+ * Chain keys are erased once the next chain key is derived, the keys of a
+ * past epoch cannot be derived again from the current chain key. The channel
+ * keys for the last few epochs are kept so that messages in flight, or sent
+ * by members whose clocks are slightly behind, can still be decrypted.
+ * Messages can be received for at most one epoch ahead of the local clock.
+ * 
+ * The keys of an epoch ahead of the ratchet are derived without moving the
+ * ratchet, it is only moved forward once a message in the epoch has been
+ * authenticated, so a forged epoch in a message header cannot erase keys.
+ */
+public class KeyRatchet
+{
+    public static final int KEY_SIZE = 16;              // 128 bit network key
+    
+    /* Every member of a channel must use the same epoch period, at least a 
+     * second so that the epoch fits in the 4 byte message header */
+    public static final long EPOCH_PERIOD = Math.max(Long.getLong("dsc.epochPeriod", 60000), 1000);
+    public static final int PAST_EPOCHS = Integer.getInteger("dsc.pastEpochs", 2);
+    
+    private static final int EPOCH_SIZE = 8;
+    private static final String CHAIN_INFO = "DSC ratchet";
+    
+    private final String passphrase;
+    private final CipherSuite suite;
+    private volatile State state;
+    private volatile Candidate candidate;
+    
+    
+    /**
+     * Creates the ratchet from the chain key of an epoch
+     * @param chainKey The chain key, the network key when a channel is created
+     * @param epoch The epoch of the chain key
+     * @param passphrase The channel passphrase
+     * @param suite The cipher suite used by the channel
+     */
+    public KeyRatchet(byte[] chainKey, long epoch, String passphrase, CipherSuite suite)
+    {
+        ChannelKeys[] keys = new ChannelKeys[PAST_EPOCHS + 1];
+        byte[] key = chainKey.clone();
+        keys[0] = new ChannelKeys(key, passphrase, suite);
+        
+        this.passphrase = passphrase;
+        this.suite = suite;
+        this.state = new State(epoch, key, keys);
+    }
+    
+    
+    /**
+     * @return The epoch at the current network time
+     */
+    public static long currentEpoch()
+    {
+        return DateTimeUtils.currentTimeMillis() / EPOCH_PERIOD;
+    }
+    
+    
+    /**
+     * @return The cipher suite used by the channel
+     */
+    public CipherSuite getSuite()
+    {
+        return this.suite;
+    }
+    
+    
+    /**
+     * @return The latest epoch the ratchet has moved to
+     */
+    public long getEpoch()
+    {
+        return this.state.epoch;
+    }
+    
+    
+    /**
+     * Returns the key data sent to members joining the channel, the cipher
+     * suite identifier, the current epoch and the chain key of the epoch,
+     * suite | epoch[8] | chainKey
+     * @return The key data
+     */
+    public synchronized byte[] getKeyData()
+    {
+        State current = moveTo(currentEpoch());
+        ByteBuffer keyData = ByteBuffer.allocate(1 + EPOCH_SIZE + current.chainKey.length);
+        
+        keyData.put(this.suite.getId());
+        keyData.putLong(current.epoch);
+        keyData.put(current.chainKey);
+        return keyData.array();
+    }
+    
+    
+    /**
+     * Creates the ratchet from the key data sent by a member of the channel
+     * @param keyData The decrypted key data
+     * @param passphrase The channel passphrase
+     * @return The ratchet
+     * @throws InvalidCipherTextException if the key data is not valid or the
+     * cipher suite is not supported
+     */
+    public static KeyRatchet fromKeyData(byte[] keyData, String passphrase) throws InvalidCipherTextException
+    {
+        if (keyData.length <= 1 + EPOCH_SIZE)
+        {
+            throw new InvalidCipherTextException("Invalid network key length!");
+        }
+        
+        CipherSuite suite = Cipher.getSuite(keyData[0]);
+        if (suite == null)
+        {
+            throw new InvalidCipherTextException("Cipher suite used by channel is not supported!");
+        }
+        
+        ByteBuffer buf = ByteBuffer.wrap(keyData, 1, keyData.length - 1);
+        long epoch = buf.getLong();
+        byte[] chainKey = new byte[buf.remaining()];
+        buf.get(chainKey);
+        
+        KeyRatchet ratchet = new KeyRatchet(chainKey, epoch, passphrase, suite);
+        Arrays.fill(chainKey, (byte) 0);
+        return ratchet;
+    }
+    
+    
+    /**
+     * Returns the epoch to send messages in, the current epoch unless the 
+     * ratchet has already moved ahead for a member whose clock is ahead
+     * @return The epoch to send in
+     */
+    public long getSendEpoch()
+    {
+        return Math.max(currentEpoch(), this.state.epoch);
+    }
+    
+    
+    /**
+     * Returns the channel keys for the epoch without moving the ratchet, the
+     * keys of an epoch ahead of the ratchet are derived if the epoch is not
+     * ahead of the local clock by more than one epoch
+     * @param epoch The epoch
+     * @return The channel keys, or null if the epoch is outside the window
+     */
+    public ChannelKeys getKeys(long epoch)
+    {
+        State current = this.state;
+        
+        if (epoch > current.epoch)
+        {
+            return epoch <= currentEpoch() + 1 ? getCandidate(epoch) : null;
+        }
+        return current.getKeys(epoch);
+    }
+    
+    
+    /**
+     * Moves the ratchet forward to the epoch, which must be the local epoch 
+     * or the epoch of a message that has been authenticated
+     * @param epoch The epoch to move to
+     * @return The channel keys for the epoch, or null if the epoch is outside
+     * the window
+     */
+    public ChannelKeys advance(long epoch)
+    {
+        if (epoch > currentEpoch() + 1)
+        {
+            return null;
+        }
+        return moveTo(epoch).getKeys(epoch);
+    }
+    
+    
+    /**
+     * Returns true if the keys for the epoch are kept or can be derived, so
+     * that messages can be dropped before they are decrypted
+     * @param epoch The epoch of the message
+     */
+    public boolean isWithin(long epoch)
+    {
+        State current = this.state;
+        
+        if (epoch > current.epoch)
+        {
+            return epoch <= currentEpoch() + 1;
+        }
+        
+        long age = current.epoch - epoch;
+        return age < current.keys.length && current.keys[(int) age] != null;
+    }
+    
+    
+    /**
+     * Derives the channel keys for an epoch ahead of the ratchet without
+     * erasing any keys, the keys are kept until the ratchet moves
+     * @param epoch The epoch ahead of the ratchet
+     * @return The channel keys for the epoch
+     */
+    private synchronized ChannelKeys getCandidate(long epoch)
+    {
+        State current = this.state;
+        Candidate next = this.candidate;
+        
+        if (epoch <= current.epoch)
+        {
+            return current.getKeys(epoch);
+        }
+        if (next != null && next.epoch == epoch && next.from == current.epoch)
+        {
+            return next.keys;
+        }
+        
+        /* Derive from a copy of the chain key, the intermediate keys are erased */
+        byte[] chainKey = current.chainKey.clone();
+        for (long i = current.epoch; i < epoch; ++i)
+        {
+            byte[] nextKey = ChannelKeys.deriveKey(chainKey, this.passphrase, CHAIN_INFO, chainKey.length);
+            Arrays.fill(chainKey, (byte) 0);
+            chainKey = nextKey;
+        }
+        
+        next = new Candidate(current.epoch, epoch, new ChannelKeys(chainKey, this.passphrase, this.suite));
+        Arrays.fill(chainKey, (byte) 0);
+        this.candidate = next;
+        return next.keys;
+    }
+    
+    
+    /**
+     * Moves the ratchet forward to the epoch, deriving the chain key and the
+     * channel keys for each epoch in between and erasing the old chain keys
+     * @param epoch The epoch to move to
+     * @return The state of the ratchet at or after the epoch
+     */
+    private synchronized State moveTo(long epoch)
+    {
+        State current = this.state;
+        
+        if (epoch <= current.epoch)
+        {
+            return current;
+        }
+        
+        /* Keep the channel keys of the past epochs still in the window */
+        ChannelKeys[] keys = new ChannelKeys[current.keys.length];
+        long steps = epoch - current.epoch;
+        for (int i = 0; i + steps < keys.length; ++i)
+        {
+            keys[i + (int) steps] = current.keys[i];
+        }
+        
+        byte[] chainKey = current.chainKey;
+        for (long next = current.epoch + 1; next <= epoch; ++next)
+        {
+            byte[] nextKey = ChannelKeys.deriveKey(chainKey, this.passphrase, CHAIN_INFO, chainKey.length);
+            Arrays.fill(chainKey, (byte) 0);
+            chainKey = nextKey;
+            
+            if (epoch - next < keys.length)
+            {
+                keys[(int) (epoch - next)] = new ChannelKeys(chainKey, this.passphrase, this.suite);
+            }
+        }
+        
+        this.state = new State(epoch, chainKey, keys);
+        this.candidate = null;
+        return this.state;
+    }
+    
+    
+    /**
+     * The epoch, chain key and window of channel keys, replaced as a whole
+     * when the ratchet moves forward
+     */
+    private static class State
+    {
+        private final long epoch;
+        private final byte[] chainKey;
+        private final ChannelKeys[] keys;       // keys[i] is for epoch - i
+        
+        private State(long epoch, byte[] chainKey, ChannelKeys[] keys)
+        {
+            this.epoch = epoch;
+            this.chainKey = chainKey;
+            this.keys = keys;
+        }
+        
+        /**
+         * Returns the channel keys for an epoch at or behind this state, or 
+         * null if the epoch is outside the window
+         */
+        private ChannelKeys getKeys(long epoch)
+        {
+            long age = this.epoch - epoch;
+            return age >= 0 && age < this.keys.length ? this.keys[(int) age] : null;
+        }
+    }
+    
+    
+    /**
+     * The channel keys derived for an epoch ahead of the ratchet, valid
+     * until the ratchet moves from the epoch they were derived from
+     */
+    private static class Candidate
+    {
+        private final long from;
+        private final long epoch;
+        private final ChannelKeys keys;
+        
+        private Candidate(long from, long epoch, ChannelKeys keys)
+        {
+            this.from = from;
+            this.epoch = epoch;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Signs with ECDSA nonces that are precomputed by a background thread. The 
+ * expensive part of a signature, the scalar multiplication k G and the 
+ * inversion of k, does not depend on the message, so a pool of k^-1 and
+ * r = x(k G) mod n is kept full in the background and a signature only 
+ * costs s = k^-1 (e + d r) mod n. Each nonce is taken from the pool once and
+ * never reused, when the pool is empty the nonce is computed by the signing
+ * thread instead.
+ */
+final class NoncePool implements Runnable
+{
+    public static final int POOL_SIZE = Integer.getInteger("dsc.noncePool", 64);
+    
+    /* One pool for each curve, the curve is identified by its base point */
+    private static final ConcurrentHashMap<ECPoint, NoncePool> pools = 
+            new ConcurrentHashMap<ECPoint, NoncePool>();
+    
+    private final ECDomainParameters params;
+    private final BigInteger n;
+    private final BlockingQueue<Nonce> nonces;
+    private final SecureRandom random;
+    
+    
+    private NoncePool(ECDomainParameters params)
+    {
+        this.params = params;
+        this.n = params.getN();
+        this.nonces = new ArrayBlockingQueue<Nonce>(Math.max(POOL_SIZE, 1));
+        this.random = new SecureRandom();
+    }
+    
+    
+    /**
+     * Returns the pool for the curve of the private key, the background 
+     * thread filling the pool is started the first time a curve is used
+     * @param params The domain parameters of the curve
+     * @return The nonce pool for the curve
+     */
+    static NoncePool get(ECDomainParameters params)
+    {
+        NoncePool pool = pools.get(params.getG());
+        
+        if (pool == null)
+        {
+            NoncePool created = new NoncePool(params);
+            pool = pools.putIfAbsent(params.getG(), created);
+            
+            if (pool == null && POOL_SIZE > 0)
+            {
+                Thread thread = new Thread(created, "NoncePool");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.start();
+            }
+            pool = pool == null ? created : pool;
+        }
+        return pool;
+    }
+    
+    
+    /**
+     * Signs the digest with the private key using a precomputed nonce
+     * @param priKey The private key
+     * @param digest The digest to sign
+     * @return The signature, r and s
+     */
+    BigInteger[] sign(ECPrivateKeyParameters priKey, byte[] digest)
+    {
+        BigInteger e = calculateE(digest);
+        BigInteger d = priKey.getD();
+        BigInteger s;
+        Nonce nonce;
+        
+        do
+        {
+            nonce = nonces.poll();
+            if (nonce == null)
+            {
+                nonce = generate();
+            }
+            s = nonce.kInv.multiply(e.add(d.multiply(nonce.r))).mod(n);
+        }
+        while (s.signum() == 0);
+        
+        return new BigInteger[] { nonce.r, s };
+    }
+    
+    
+    /**
+     * Keeps the pool full, blocking while it is
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                nonces.put(generate());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    
+    /**
+     * Generates a random nonce k in [1, n - 1] and precomputes r and k^-1
+     */
+    private Nonce generate()
+    {
+        int nBitLength = n.bitLength();
+        BigInteger k;
+        BigInteger r;
+        
+        do
+        {
+            do
+            {
+                k = new BigInteger(nBitLength, random);
+            }
+            while (k.signum() == 0 || k.compareTo(n) >= 0);
+            
+            r = params.getG().multiply(k).getX().toBigInteger().mod(n);
+        }
+        while (r.signum() == 0);
+        
+        return new Nonce(r, k.modInverse(n));
+    }
+    
+    
+    /**
+     * Converts the digest to an integer the same way as ECDSASigner
+     */
+    private BigInteger calculateE(byte[] digest)
+    {
+        int log2n = n.bitLength();
+        int digestBitLength = digest.length * 8;
+        BigInteger e = new BigInteger(1, digest);
+        
+        if (log2n < digestBitLength)
+        {
+            e = e.shiftRight(digestBitLength - log2n);
+        }
+        return e;
+    }
+    
+    
+    /**
+     * A precomputed nonce, r = x(k G) mod n and k^-1 mod n
+     */
+    private static class Nonce
+    {
+        private final BigInteger r;
+        private final BigInteger kInv;
+        
+        public Nonce(BigInteger r, BigInteger kInv)
+        {
+            this.r = r;
+            this.kInv = kInv;
+        }
+    }
+}
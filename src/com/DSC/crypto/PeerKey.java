@@ -0,0 +1,51 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+
+/**
+ * The public key of a peer decoded from its compressed encoding, along with
+ * the encoding used to track the handshake with the peer.
+ */
+public class PeerKey
+{
+    private final byte[] encoded;
+    private final ECPublicKeyParameters publicKey;
+    
+    /**
+     * Decodes the public key, the point is decompressed and checked to be on
+     * the curve
+     * @param encoded The compressed encoding of the public key
+     * @throws IllegalArgumentException if the encoding is not a valid point
+     */
+    public PeerKey(byte[] encoded) throws IllegalArgumentException
+    {
+        this.encoded = encoded;
+        this.publicKey = ECGKeyUtil.decodePubKey(encoded);
+    }
+    
+    public byte[] getEncoded()
+    {
+        return this.encoded;
+    }
+    
+    public ECPublicKeyParameters getPublicKey()
+    {
+        return this.publicKey;
+    }
+}
@@ -0,0 +1,144 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+/**
+ * A hashcash style proof of work stamp for authentication requests. The 
+ * stamp is the public key of the member requesting access followed by a
+ * timestamp and a nonce, the difficulty of the stamp is the number of leading
+ * zero bits in the SHA-256 hash of the stamp. Minting a stamp of difficulty d
+ * takes 2^d hashes on average, checking it takes a single hash.
+ */
+public abstract class ProofOfWork
+{
+    /* Compressed public key, timestamp and nonce */
+    public static final int STAMP_SIZE = 33 + 8 + 8;
+    
+    /* Difficulty of the stamps minted when requesting access */
+    public static final int DIFFICULTY = Integer.getInteger("dsc.powDifficulty", 16);
+    
+    /* Stamps are only accepted within this many milliseconds of their timestamp */
+    public static final long STAMP_LIFETIME = 5 * 60 * 1000;
+    
+    public static final int HASH_SIZE = 32;
+    
+    /* Digests are reset for every stamp, keep one per thread */
+    private static final ThreadLocal<Digest> digest = new ThreadLocal<Digest>() {
+        @Override
+        protected Digest initialValue()
+        {
+            return new SHA256Digest();
+        }
+    };
+    
+    private static final ThreadLocal<byte[]> hash = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[HASH_SIZE];
+        }
+    };
+    
+    
+    /**
+     * Finds a nonce which gives the stamp at least the difficulty requested
+     * @param publicKey The compressed encoding of the public key
+     * @param timestamp The time the stamp is minted, in milliseconds
+     * @param difficulty The number of leading zero bits required
+     * @return The nonce for the stamp
+     */
+    public static long mint(byte[] publicKey, long timestamp, int difficulty)
+    {
+        byte[] stamp = new byte[STAMP_SIZE];
+        System.arraycopy(publicKey, 0, stamp, 0, publicKey.length);
+        putLong(stamp, publicKey.length, timestamp);
+        
+        for (long nonce = 0; ; ++nonce)
+        {
+            putLong(stamp, publicKey.length + 8, nonce);
+            
+            if (getDifficulty(stamp, 0) >= difficulty)
+            {
+                return nonce;
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the difficulty of the stamp in the buffer, no buffers are 
+     * allocated so stamps can be checked for every request received
+     * @param buf The buffer containing the stamp
+     * @param offset The offset of the stamp in the buffer
+     * @return The number of leading zero bits in the hash of the stamp
+     */
+    public static int getDifficulty(byte[] buf, int offset)
+    {
+        byte[] out = hash.get();
+        hash(buf, offset, out);
+        return getDifficulty(out);
+    }
+    
+    
+    /**
+     * Hashes the stamp in the buffer, the hash identifies the stamp so that
+     * a stamp can only be spent once
+     * @param buf The buffer containing the stamp
+     * @param offset The offset of the stamp in the buffer
+     * @param out The buffer for the 32 byte hash of the stamp
+     */
+    public static void hash(byte[] buf, int offset, byte[] out)
+    {
+        Digest sha256 = digest.get();
+        
+        sha256.update(buf, offset, STAMP_SIZE);
+        sha256.doFinal(out, 0);
+    }
+    
+    
+    /**
+     * Returns the difficulty of a stamp from its hash
+     * @param stampHash The hash of the stamp
+     * @return The number of leading zero bits in the hash
+     */
+    public static int getDifficulty(byte[] stampHash)
+    {
+        int bits = 0;
+        for (byte b : stampHash)
+        {
+            if (b != 0)
+            {
+                return bits + Integer.numberOfLeadingZeros(b & 0xFF) - 24;
+            }
+            bits += 8;
+        }
+        return bits;
+    }
+    
+    
+    private static void putLong(byte[] buf, int offset, long value)
+    {
+        for (int i = offset + 7; i >= offset; --i)
+        {
+            buf[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
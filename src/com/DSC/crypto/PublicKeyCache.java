@@ -0,0 +1,71 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded cache of the public keys received from peers, keyed by their
+ * compressed encoding. Decompressing a point requires a modular square root,
+ * so repeat peers are only decoded once.
+ */
+public abstract class PublicKeyCache
+{
+    public static final int MAXIMUM_SIZE = 4096;
+    
+    /* Least recently used keys are evicted once the cache is full */
+    private static final Cache<ByteBuffer, PeerKey> cache = CacheBuilder.newBuilder()
+                                                                .maximumSize(MAXIMUM_SIZE)
+                                                                .recordStats()
+                                                                .build();
+    
+    
+    /**
+     * Returns the decoded public key for the compressed encoding, the key is
+     * only decoded if it is not already cached
+     * @param encoded The compressed encoding of the public key, which must not
+     * be modified afterwards
+     * @return The decoded public key
+     * @throws IllegalArgumentException if the encoding is not a valid point
+     */
+    public static PeerKey get(byte[] encoded) throws IllegalArgumentException
+    {
+        ByteBuffer key = ByteBuffer.wrap(encoded);
+        PeerKey peerKey = cache.getIfPresent(key);
+        
+        if (peerKey == null)
+        {
+            peerKey = new PeerKey(encoded);
+            cache.put(key, peerKey);
+        }
+        return peerKey;
+    }
+    
+    
+    /**
+     * Returns the hit and miss counts of the cache
+     * @return The cache statistics
+     */
+    public static CacheStats getStats()
+    {
+        return cache.stats();
+    }
+}
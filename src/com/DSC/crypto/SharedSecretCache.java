@@ -0,0 +1,194 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.BasicAgreement;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.agreement.ECDHCBasicAgreement;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.util.BigIntegers;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * An ECDH agreement that caches the shared secret of each pair of keys, so
+ * that keys sent to or received from the same peer again, such as when the
+ * network key is replaced, do not repeat the scalar multiplication. Pairs
+ * are identified by the compressed encodings of both public keys.
+ * 
+ * The cache is bounded and entries expire once they are not used for the
+ * lifetime given, the secret of an entry is zeroed when it is removed.
+ */
+public class SharedSecretCache implements BasicAgreement
+{
+    public static final int MAXIMUM_SIZE = Integer.getInteger("dsc.sharedSecretCache", 1024);
+    public static final long LIFETIME = Long.getLong("dsc.sharedSecretLifetime", 3600000);
+    
+    /* Secrets are zeroed once evicted, expired or the cache is cleared */
+    private static final RemovalListener<ByteBuffer, Secret> zeroize = new RemovalListener<ByteBuffer, Secret>() {
+        @Override
+        public void onRemoval(RemovalNotification<ByteBuffer, Secret> removed)
+        {
+            removed.getValue().destroy();
+        }
+    };
+    
+    /* Least recently used secrets are evicted once the cache is full */
+    private static final Cache<ByteBuffer, Secret> secrets = CacheBuilder.newBuilder()
+                                                                .maximumSize(MAXIMUM_SIZE)
+                                                                .expireAfterAccess(LIFETIME, TimeUnit.MILLISECONDS)
+                                                                .removalListener(zeroize)
+                                                                .recordStats()
+                                                                .build();
+    
+    /* The encoded public key of each private key, computed once per key */
+    private static final Cache<ECPrivateKeyParameters, byte[]> publicKeys = CacheBuilder.newBuilder()
+                                                                .weakKeys()
+                                                                .build();
+    
+    private final ECDHCBasicAgreement agreement = new ECDHCBasicAgreement();
+    private ECPrivateKeyParameters key;
+    
+    
+    public void init(CipherParameters key)
+    {
+        this.agreement.init(key);
+        this.key = (ECPrivateKeyParameters) key;
+    }
+    
+    
+    public int getFieldSize()
+    {
+        return this.agreement.getFieldSize();
+    }
+    
+    
+    /**
+     * Returns the shared secret with the peer's public key, the secret is 
+     * only agreed if it is not already cached for the pair of keys
+     * @param pubKey The peer's public key
+     * @return The shared secret
+     */
+    public BigInteger calculateAgreement(final CipherParameters pubKey)
+    {
+        byte[] publicKey = getPublicKey(this.key);
+        byte[] peerKey = ECGKeyUtil.encodePubKey(pubKey);
+        ByteBuffer pair = ByteBuffer.allocate(publicKey.length + peerKey.length);
+        pair.put(publicKey).put(peerKey).flip();
+        
+        try
+        {
+            BigInteger z;
+            
+            /* A secret removed while it is looked up is agreed again */
+            do
+            {
+                Secret secret = secrets.get(pair, new Callable<Secret>() {
+                    @Override
+                    public Secret call()
+                    {
+                        return new Secret(BigIntegers.asUnsignedByteArray(getFieldSize(), 
+                                agreement.calculateAgreement(pubKey)));
+                    }
+                });
+                z = secret.getValue();
+            } while (z == null);
+            
+            return z;
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    
+    /**
+     * Returns the hit and miss counts of the cache
+     * @return The cache statistics
+     */
+    public static CacheStats getStats()
+    {
+        return secrets.stats();
+    }
+    
+    
+    /**
+     * Returns the compressed encoding of the public key for the private key
+     */
+    private static byte[] getPublicKey(ECPrivateKeyParameters key)
+    {
+        byte[] publicKey = publicKeys.getIfPresent(key);
+        
+        if (publicKey == null)
+        {
+            publicKey = ECGKeyUtil.encodePubKey(new ECPublicKeyParameters(
+                    key.getParameters().getG().multiply(key.getD()), 
+                    key.getParameters()));
+            publicKeys.put(key, publicKey);
+        }
+        return publicKey;
+    }
+    
+    
+    /**
+     * A secret owned by the cache, the value is only read and zeroed while
+     * holding the lock of the secret so that it is never read partly zeroed
+     */
+    private static final class Secret
+    {
+        private final byte[] value;
+        private boolean destroyed;
+        
+        
+        Secret(byte[] value)
+        {
+            this.value = value;
+        }
+        
+        
+        /**
+         * Returns a copy of the secret, or null if it has been zeroed
+         */
+        synchronized BigInteger getValue()
+        {
+            return destroyed ? null : new BigInteger(1, value);
+        }
+        
+        
+        /**
+         * Zeroes the secret once it is removed from the cache
+         */
+        synchronized void destroy()
+        {
+            Arrays.fill(value, (byte) 0);
+            destroyed = true;
+        }
+    }
+}
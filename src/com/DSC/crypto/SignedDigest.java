@@ -0,0 +1,60 @@
+/** 
+ * Copyright (C) 2013 Jonathan Gillett
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+
+/**
+ * The digest of a message and its ECDSA signature, along with the public key
+ * of the signer, to be verified alone or as part of a batch.
+ */
+public class SignedDigest
+{
+    private final ECPublicKeyParameters publicKey;
+    private final byte[] digest;
+    private final BigInteger[] signature;
+    
+    /**
+     * 
+     * @param publicKey The public key of the signer
+     * @param digest The digest that was signed
+     * @param signature The signature, r and s
+     */
+    public SignedDigest(ECPublicKeyParameters publicKey, byte[] digest, BigInteger[] signature)
+    {
+        this.publicKey = publicKey;
+        this.digest = digest;
+        this.signature = signature;
+    }
+    
+    public ECPublicKeyParameters getPublicKey()
+    {
+        return this.publicKey;
+    }
+    
+    public byte[] getDigest()
+    {
+        return this.digest;
+    }
+    
+    public BigInteger[] getSignature()
+    {
+        return this.signature;
+    }
+}
@@ -0,0 +1,525 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.harness;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.DSC.controller.DropReason;
+import com.DSC.crypto.KeyRatchet;
+import com.DSC.crypto.PublicKeyCache;
+import com.DSC.crypto.SharedSecretCache;
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A headless load testing harness, starts a number of members in the JVM over
+ * the JGroups shared loopback transport and scripts the create, request,
+ * authorize and chat flows without the console. The handshake latency, the
+ * message throughput, and the CPU time used by each member are reported. The
+ * members join in turn, or all at once to measure a join storm.
+ * Optionally the first and last members then replace the network key in turn
+ * to measure the time to rekey the channel, the first new key removing members
+ * from the channel, and the channel is flooded with authentication
+ * requests to measure the CPU time the members spend on the requests, from
+ * one or many attackers with random stamps or a replayed valid stamp.
+ * 
+ * Usage: ClusterHarness [-n members] [-m messages] [-l length] [-a approvers] 
+ *                       [-s suite] [-t timeout] [-h combined|classic] 
+ *                       [-j sequential|concurrent] [-r rekeys] [-x removed] [-f rate] 
+ *                       [-F senders] [-P random|replayed]
+ */
+public class ClusterHarness
+{
+    private static final String CLUSTER = "dsc-harness";
+    private static final String PASSPHRASE = "harness";
+    private static final long POLL_INTERVAL = 1;    // milliseconds
+    private static final long FLOOD_DURATION = 5000;
+    
+    private static int members = 10;
+    private static int messages = 100;
+    private static int length = 64;
+    private static int approvers = 1;
+    private static String suite = "";
+    private static long timeout = 30000;
+    private static boolean classic = false;
+    private static boolean concurrent = false;
+    private static int rekeys = 0;
+    private static int removed = 0;
+    private static int floodRate = 0;
+    private static int floodSenders = 1;
+    private static boolean replayStamps = false;
+    
+    
+    /**
+     * Parses the command line options
+     * @return False if the options are invalid
+     */
+    private static boolean parseArgs(String[] args)
+    {
+        try
+        {
+            for (int i = 0; i < args.length; i += 2)
+            {
+                String value = args[i + 1];
+                
+                if (args[i].equals("-n"))
+                {
+                    members = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-m"))
+                {
+                    messages = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-l"))
+                {
+                    length = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-a"))
+                {
+                    approvers = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-s"))
+                {
+                    suite = value;
+                }
+                else if (args[i].equals("-t"))
+                {
+                    timeout = Long.parseLong(value);
+                }
+                else if (args[i].equals("-h") && (value.equals("combined") || value.equals("classic")))
+                {
+                    classic = value.equals("classic");
+                }
+                else if (args[i].equals("-j") && (value.equals("sequential") || value.equals("concurrent")))
+                {
+                    concurrent = value.equals("concurrent");
+                }
+                else if (args[i].equals("-r"))
+                {
+                    rekeys = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-x"))
+                {
+                    removed = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-f"))
+                {
+                    floodRate = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-F"))
+                {
+                    floodSenders = Integer.parseInt(value);
+                }
+                else if (args[i].equals("-P") && (value.equals("random") || value.equals("replayed")))
+                {
+                    replayStamps = value.equals("replayed");
+                }
+                else
+                {
+                    return false;
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            return false;
+        }
+        return members > 1 && approvers > 0 && rekeys >= 0 && floodRate >= 0 && floodSenders > 0
+                && removed >= 0 && (removed == 0 || rekeys > 0);
+    }
+    
+    
+    /**
+     * Returns the value at the percentile of the sorted values
+     */
+    private static long percentile(long[] sorted, double percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+    
+    
+    /**
+     * Converts nanoseconds to milliseconds for the report
+     */
+    private static String millis(long nanos)
+    {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception 
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (! parseArgs(args))
+        {
+            System.err.println("Usage: ClusterHarness [-n members] [-m messages] [-l length] "
+                    + "[-a approvers] [-s suite] [-t timeout] [-h combined|classic] "
+                    + "[-j sequential|concurrent] [-r rekeys] [-x removed] [-f rate] [-F senders] "
+                    + "[-P random|replayed]");
+            System.exit(1);
+        }
+        
+        /* The members print chat messages and notices, only the report is shown */
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+        System.setProperty("java.net.preferIPv4Stack", "true");
+        
+        List<LoopbackMember> cluster = new ArrayList<LoopbackMember>();
+        List<LoopbackMember> joined = new ArrayList<LoopbackMember>();
+        
+        /* Start the members, the first member creates the channel */
+        long start = System.nanoTime();
+        for (int i = 0; i < members; ++i)
+        {
+            LoopbackMember member = new LoopbackMember();
+            member.connect(CLUSTER);
+            member.setAutoApprove(i < approvers);
+            cluster.add(member);
+        }
+        out.println("> Started " + members + " members in " + millis(System.nanoTime() - start));
+        
+        if (! cluster.get(0).create(PASSPHRASE, suite))
+        {
+            System.err.println("Cipher suite " + suite + " is not supported.");
+            System.exit(1);
+        }
+        joined.add(cluster.get(0));
+        
+        /* Each member requests access and waits for the network key, in turn or all at once */
+        final long[] latencies = new long[members - 1];
+        int failed = 0;
+        start = System.nanoTime();
+        if (concurrent)
+        {
+            ExecutorService joinPool = Executors.newFixedThreadPool(members - 1);
+            for (int i = 1; i < members; ++i)
+            {
+                final int index = i;
+                final LoopbackMember member = cluster.get(i);
+                joinPool.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            latencies[index - 1] = member.request(PASSPHRASE, timeout, classic);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            latencies[index - 1] = -1;
+                        }
+                    }
+                });
+            }
+            joinPool.shutdown();
+            joinPool.awaitTermination(2 * timeout, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            for (int i = 1; i < members; ++i)
+            {
+                latencies[i - 1] = cluster.get(i).request(PASSPHRASE, timeout, classic);
+            }
+        }
+        long keyed = System.nanoTime() - start;
+        
+        for (int i = 1; i < members; ++i)
+        {
+            if (latencies[i - 1] < 0)
+            {
+                ++failed;
+                latencies[i - 1] = TimeUnit.MILLISECONDS.toNanos(timeout);
+            }
+            else
+            {
+                joined.add(cluster.get(i));
+            }
+        }
+        Arrays.sort(latencies);
+        
+        out.println("> Handshakes: " + (members - 1 - failed) + " joined, " + failed + " failed, "
+                + (concurrent ? "all at once" : "in turn") + ", all keyed after " + millis(keyed));
+        out.println(">   p50 " + millis(percentile(latencies, 50)) 
+                + ", p90 " + millis(percentile(latencies, 90))
+                + ", p99 " + millis(percentile(latencies, 99)) 
+                + ", max " + millis(latencies[latencies.length - 1]));
+        
+        /* Every member that joined sends messages to the channel at once */
+        final String message = Strings.repeat("x", length);
+        long expected = (long) joined.size() * (joined.size() - 1) * messages;
+        long received = 0;
+        
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(joined.size(), Runtime.getRuntime().availableProcessors()));
+        start = System.nanoTime();
+        for (final LoopbackMember member : joined)
+        {
+            pool.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < messages; ++i)
+                    {
+                        member.chat(message);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        
+        /* Wait for the messages to be delivered to every member */
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (received < expected && System.nanoTime() < deadline)
+        {
+            Thread.sleep(POLL_INTERVAL);
+            
+            received = 0;
+            for (LoopbackMember member : joined)
+            {
+                received += member.getChatReceived();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        
+        out.println("> Messages: " + (joined.size() * messages) + " sent, " 
+                + received + " of " + expected + " delivered in " + String.format("%.2f s", elapsed));
+        out.println(String.format(">   %.0f sent/s, %.0f delivered/s", 
+                joined.size() * messages / elapsed, received / elapsed));
+        
+        /* The CPU time to send a message does not depend on the number of members */
+        long chatCpuTime = 0;
+        for (LoopbackMember member : joined)
+        {
+            chatCpuTime += member.getChatCpuTime();
+        }
+        out.println(String.format(">   send CPU per message %.1f us", 
+                chatCpuTime / 1e3 / Math.max(joined.size() * messages, 1)));
+        
+        /* CPU time used by each member handling messages */
+        long[] cpuTimes = new long[members];
+        long totalCpuTime = 0;
+        long totalReceived = 0;
+        for (int i = 0; i < members; ++i)
+        {
+            cpuTimes[i] = cluster.get(i).getCpuTime();
+            totalCpuTime += cpuTimes[i];
+            totalReceived += cluster.get(i).getReceived();
+        }
+        Arrays.sort(cpuTimes);
+        
+        out.println("> CPU per member: min " + millis(cpuTimes[0]) 
+                + ", mean " + millis(totalCpuTime / members)
+                + ", max " + millis(cpuTimes[members - 1]) 
+                + ", total " + millis(totalCpuTime));
+        out.println(">   " + totalReceived + " messages received by all members");
+        
+        /* The first and the last member to join replace the network key in turn */
+        if (rekeys > 0)
+        {
+            long[] sendTimes = new long[rekeys];
+            long[] rekeyTimes = new long[rekeys];
+            int rekeyed = 0;
+            int leaked = 0;
+            
+            /* 
+             * The first new key removes members that did not trust any other
+             * member, a member only trusted by a removed member is no longer
+             * trusted by any member and could not be sent the key
+             */
+            List<LoopbackMember> kept = new ArrayList<LoopbackMember>(joined);
+            List<LoopbackMember> removedMembers = new ArrayList<LoopbackMember>();
+            for (int i = Math.max(approvers, 1); removedMembers.size() < removed && i < joined.size() - 1; ++i)
+            {
+                joined.get(0).remove(joined.get(i));
+                kept.remove(joined.get(i));
+                removedMembers.add(joined.get(i));
+            }
+            
+            for (int r = 0; r < rekeys; ++r)
+            {
+                LoopbackMember rekeyer = joined.get(r % 2 == 0 ? 0 : joined.size() - 1);
+                start = System.nanoTime();
+                sendTimes[r] = rekeyer.rekey();
+                
+                /* Wait for every member that was not removed to have the new key */
+                deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+                do
+                {
+                    Thread.sleep(POLL_INTERVAL);
+                    
+                    /* The keys are compared in the same epoch of the ratchet */
+                    long epoch = KeyRatchet.currentEpoch();
+                    byte[] key = rekeyer.getSymmetricKey(epoch);
+                    rekeyed = 0;
+                    for (LoopbackMember member : kept)
+                    {
+                        rekeyed += Arrays.equals(key, member.getSymmetricKey(epoch)) ? 1 : 0;
+                    }
+                    leaked = 0;
+                    for (LoopbackMember member : removedMembers)
+                    {
+                        leaked += Arrays.equals(key, member.getSymmetricKey(epoch)) ? 1 : 0;
+                    }
+                }
+                while (rekeyed < kept.size() && System.nanoTime() < deadline);
+                rekeyTimes[r] = System.nanoTime() - start;
+            }
+            Arrays.sort(sendTimes);
+            Arrays.sort(rekeyTimes);
+            
+            out.println("> Rekey: " + (rekeyed - 1) + " of " + (kept.size() - 1) + " members rekeyed, " 
+                    + rekeys + " rekeys" + (removedMembers.isEmpty() ? "" : ", " + leaked + " of " 
+                    + removedMembers.size() + " removed members have the key"));
+            out.println(">   send p50 " + millis(percentile(sendTimes, 50)) 
+                    + ", max " + millis(sendTimes[rekeys - 1]) 
+                    + "; all members rekeyed p50 " + millis(percentile(rekeyTimes, 50))
+                    + ", max " + millis(rekeyTimes[rekeys - 1]));
+        }
+        
+        /* Attackers that have not joined flood the channel with requests, sharing the rate */
+        if (floodRate > 0)
+        {
+            long[] floodCpuStart = new long[joined.size()];
+            long receivedStart = 0;
+            for (int i = 0; i < joined.size(); ++i)
+            {
+                floodCpuStart[i] = joined.get(i).getCpuTime();
+                receivedStart += joined.get(i).getReceived();
+            }
+            
+            final List<LoopbackMember> attackers = new ArrayList<LoopbackMember>();
+            for (int i = 0; i < floodSenders; ++i)
+            {
+                LoopbackMember attacker = new LoopbackMember();
+                attacker.connect(CLUSTER);
+                attackers.add(attacker);
+            }
+            
+            final int senderRate = Math.max(floodRate / floodSenders, 1);
+            final AtomicLong flooded = new AtomicLong();
+            ExecutorService floodPool = Executors.newFixedThreadPool(floodSenders);
+            start = System.nanoTime();
+            for (final LoopbackMember attacker : attackers)
+            {
+                floodPool.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            flooded.addAndGet(attacker.flood(senderRate, FLOOD_DURATION, replayStamps));
+                        }
+                        catch (Exception e)
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+            }
+            floodPool.shutdown();
+            floodPool.awaitTermination(FLOOD_DURATION + timeout, TimeUnit.MILLISECONDS);
+            elapsed = (System.nanoTime() - start) / 1e9;
+            long sent = flooded.get();
+            
+            /* Wait for the requests to be delivered and handled before measuring */
+            Thread.sleep(timeout / 10);
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            for (LoopbackMember member : joined)
+            {
+                while (! member.isIdle() && System.nanoTime() < deadline)
+                {
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+            double drained = (System.nanoTime() - start) / 1e9;
+            for (LoopbackMember attacker : attackers)
+            {
+                attacker.close();
+            }
+            
+            long maxFloodCpu = 0;
+            long totalFloodCpu = 0;
+            long handled = -receivedStart;
+            for (int i = 0; i < joined.size(); ++i)
+            {
+                long floodCpu = joined.get(i).getCpuTime() - floodCpuStart[i];
+                maxFloodCpu = Math.max(maxFloodCpu, floodCpu);
+                totalFloodCpu += floodCpu;
+                handled += joined.get(i).getReceived();
+            }
+            
+            out.println("> Flood: " + sent + " requests from " + floodSenders + " senders with " 
+                    + (replayStamps ? "a replayed stamp" : "random stamps") 
+                    + String.format(" in %.2f s, %.0f requests/s", elapsed, sent / elapsed));
+            out.println(">   CPU per member per second: mean " 
+                    + millis((long) (totalFloodCpu / joined.size() / elapsed)) 
+                    + ", max " + millis((long) (maxFloodCpu / elapsed)));
+            out.println(">   " + handled / joined.size() + " of " + sent + " requests handled by each member, "
+                    + String.format("all handled after %.2f s", drained));
+        }
+        
+        StringBuilder dropped = new StringBuilder();
+        for (DropReason reason : DropReason.values())
+        {
+            long count = 0;
+            for (LoopbackMember member : cluster)
+            {
+                count += member.getDropped(reason);
+            }
+            if (count > 0)
+            {
+                dropped.append(dropped.length() > 0 ? ", " : "").append(reason).append(' ').append(count);
+            }
+        }
+        out.println("> Dropped before decoding: " + (dropped.length() > 0 ? dropped : "none"));
+        
+        CacheStats keyCache = PublicKeyCache.getStats();
+        out.println(String.format("> Public key cache: %d hits, %d misses, %.1f%% hit rate", 
+                keyCache.hitCount(), keyCache.missCount(), keyCache.hitRate() * 100));
+        CacheStats secretCache = SharedSecretCache.getStats();
+        out.println(String.format("> Shared secret cache: %d hits, %d misses, %.1f%% hit rate", 
+                secretCache.hitCount(), secretCache.missCount(), secretCache.hitRate() * 100));
+        
+        for (LoopbackMember member : cluster)
+        {
+            member.close();
+        }
+        System.exit(failed == 0 && received == expected ? 0 : 2);
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.harness;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.PING;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.joda.time.DateTimeUtils;
+
+import com.DSC.chat.Auth;
+import com.DSC.chat.Create;
+import com.DSC.chat.Rekey;
+import com.DSC.chat.Request;
+import com.DSC.controller.DropReason;
+import com.DSC.controller.ReceiveController;
+import com.DSC.controller.SendController;
+import com.DSC.crypto.ChannelKeys;
+import com.DSC.crypto.ECDSA;
+import com.DSC.crypto.ECGKeyUtil;
+import com.DSC.crypto.ECKey;
+import com.DSC.crypto.ProofOfWork;
+import com.DSC.message.AbstractMessageFactory;
+import com.DSC.message.MessageCodec;
+import com.DSC.message.MessageType;
+import com.DSC.utility.ChannelSession;
+import com.DSC.utility.PendingRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A cluster member driven by the harness instead of the console, each member
+ * has its own keys and channel session.
+ */
+public class LoopbackMember
+{
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong chatReceived = new AtomicLong();
+    private final AtomicLong cpuTime = new AtomicLong();
+    private final AtomicLong chatCpuTime = new AtomicLong();
+    private final ChannelSession session;
+    private final SendController sendController;
+    private final ReceiveController receiveController;
+    private volatile boolean autoApprove = false;
+    private volatile boolean closed = false;
+    
+    /* How often pending requests are trusted automatically, in milliseconds */
+    private static final long APPROVE_INTERVAL = 1;
+    
+    
+    /**
+     * Creates the member's keys and a session using the shared loopback 
+     * transport
+     * @throws Exception
+     */
+    public LoopbackMember() throws Exception
+    {
+        ECKey key = new ECKey();
+        key.init();
+        
+        session = new ChannelSession(
+                new JChannel(createStack()), 
+                (ECPublicKeyParameters) key.getPublic(), 
+                (ECPrivateKeyParameters) key.getPrivate());
+        sendController = new SendController(session);
+        receiveController = new ReceiveController(session);
+        
+        /* The CPU time of the member includes verifying signatures */
+        session.getVerifier().setCpuTimed(true);
+    }
+    
+    
+    /**
+     * Creates the protocol stack used by the cluster, all members in the JVM
+     * exchange messages in memory using the shared loopback transport
+     */
+    private static Protocol[] createStack()
+    {
+        return new Protocol[] {
+            new SHARED_LOOPBACK(),
+            new PING(),
+            new NAKACK2(),
+            new UNICAST3(),
+            new STABLE(),
+            new GMS(),
+            new FRAG2()
+        };
+    }
+    
+    
+    /**
+     * Connects the member to the cluster
+     * @param cluster The name of the cluster to connect to
+     * @throws Exception
+     */
+    public void connect(String cluster) throws Exception
+    {
+        session.connect(cluster, new MemberReceiver(receiveController));
+    }
+    
+    
+    /**
+     * Creates the secure channel, the member becomes the first trusted member
+     * @param passphrase The channel passphrase
+     * @param suite The cipher suite, the default suite is used if empty
+     * @return False if the channel could not be created
+     */
+    public boolean create(String passphrase, String suite)
+    {
+        Create create = new Create();
+        create.setChannel(session.getName());
+        create.setSession(session);
+        create.setPassphrase(passphrase);
+        
+        return create.setSuite(suite) && create.executeCommand();
+    }
+    
+    
+    /**
+     * Requests access to the channel and waits for the network key
+     * @param passphrase The channel passphrase
+     * @param timeout The maximum time to wait in milliseconds
+     * @param classic True to use the classic four message handshake
+     * @return The handshake latency in nanoseconds, or -1 if the member failed to join
+     * @throws InterruptedException
+     */
+    public long request(String passphrase, long timeout, boolean classic) throws InterruptedException
+    {
+        Request request = new Request();
+        request.setPassphrase(passphrase);
+        request.setSession(session);
+        request.executeCommand();
+        
+        /* Request access, the key is requested as soon as authenticated */
+        long start = System.nanoTime();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        ListenableFuture<ChannelSession> keyReceived = classic 
+                ? sendController.requestKey(sendController.requestAuthentication())
+                : sendController.requestAccess();
+        cpuTime.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+        
+        try
+        {
+            keyReceived.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            keyReceived.cancel(false);
+            return -1;
+        }
+        catch (ExecutionException e)
+        {
+            return -1;
+        }
+        
+        return System.nanoTime() - start;
+    }
+    
+    
+    /**
+     * Sets whether authentication requests received are trusted automatically,
+     * requests are pending once their signature is verified by the member's
+     * verification queue, so they are trusted by a thread checking for them
+     * @param approve True to trust all authentication requests
+     */
+    public void setAutoApprove(boolean approve)
+    {
+        boolean approving = this.autoApprove;
+        this.autoApprove = approve;
+        
+        if (approve && ! approving)
+        {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    while (autoApprove && ! closed)
+                    {
+                        if (! session.getPendingRequests().isEmpty())
+                        {
+                            long start = threads.getCurrentThreadCpuTime();
+                            approvePending();
+                            cpuTime.addAndGet(threads.getCurrentThreadCpuTime() - start);
+                        }
+                        
+                        try
+                        {
+                            Thread.sleep(APPROVE_INTERVAL);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                    }
+                }
+            }, "Approver");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    
+    /**
+     * Sends a message to the entire channel
+     * @param message The plaintext message
+     */
+    public void chat(String message)
+    {
+        chatCpuTime.addAndGet(send(MessageType.ENCRYPTED_MESSAGE, message));
+    }
+    
+    
+    /**
+     * Sends a new network key to the members trusted by this member, in a 
+     * single message
+     * @return The time taken to create and send the new key in nanoseconds
+     */
+    public long rekey()
+    {
+        Rekey rekey = new Rekey();
+        rekey.setSession(session);
+        
+        long start = System.nanoTime();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        rekey.executeCommand();
+        cpuTime.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+        
+        return System.nanoTime() - start;
+    }
+    
+    
+    /**
+     * Removes the member from the channel, the member is no longer trusted 
+     * and is excluded from the next network key sent by any member
+     * @param member The member to remove
+     */
+    public void remove(LoopbackMember member)
+    {
+        session.getTrustedMembers().remove(MessageCodec.getKeyId(member.getPublicKey()));
+    }
+    
+    
+    /**
+     * Returns the compressed encoding of the member's public key
+     */
+    public byte[] getPublicKey()
+    {
+        return ECGKeyUtil.encodePubKey(session.getPublicKey());
+    }
+    
+    
+    /**
+     * Returns the encryption key used by the member in the epoch, which is 
+     * derived from the network key currently used by the member
+     * @param epoch The epoch
+     * @return The encryption key, or null if the epoch is outside the window
+     */
+    public byte[] getSymmetricKey(long epoch)
+    {
+        ChannelKeys keys = session.getKeys().getKeys(epoch);
+        return keys != null ? keys.getEncryptionKey() : null;
+    }
+    
+    
+    /**
+     * Floods the channel with authentication requests at the rate given, as an
+     * attacker would. Each request is signed without the channel passphrase,
+     * so the signature is only found to be invalid once it is verified. The
+     * requests have either random proof of work stamps, or a single valid 
+     * stamp that is minted once and replayed, every request that is not 
+     * dropped costs each member a signature verification.
+     * @param rate The requests sent per second
+     * @param duration The time to send requests for, in milliseconds
+     * @param replay True to replay a single valid stamp
+     * @return The number of requests sent
+     * @throws Exception
+     */
+    public long flood(int rate, long duration, boolean replay) throws Exception
+    {
+        byte[] publicKey = ECGKeyUtil.encodePubKey(session.getPublicKey());
+        long timestamp = DateTimeUtils.currentTimeMillis();
+        byte[] request = AbstractMessageFactory.encodeMessage(AbstractMessageFactory.createAuthRequest(
+                publicKey, 
+                null, 
+                timestamp, 
+                replay ? ProofOfWork.mint(publicKey, timestamp, ProofOfWork.DIFFICULTY) : 0, 
+                ECDSA.signAuthRequest(session.getPrivateKey(), session.getPublicKey(), "not the passphrase", 
+                        (byte) 0)));
+        int nonceOffset = MessageCodec.TIMESTAMP_OFFSET + MessageCodec.TIMESTAMP_SIZE;
+        
+        long sent = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        for (long now = start; now < end; now = System.nanoTime())
+        {
+            for (long due = (now - start) * rate / TimeUnit.SECONDS.toNanos(1); sent < due; ++sent)
+            {
+                /* Each request has its own buffer, and its own nonce unless replayed */
+                byte[] buf = request.clone();
+                for (int i = 0; i < MessageCodec.NONCE_SIZE && ! replay; ++i)
+                {
+                    buf[nonceOffset + i] = (byte) (sent >>> (8 * i));
+                }
+                session.getChannel().send(new Message(null, null, buf));
+            }
+            Thread.sleep(1);
+        }
+        return sent;
+    }
+    
+    
+    /**
+     * Returns the number of messages received by the member
+     */
+    public long getReceived()
+    {
+        return received.get();
+    }
+    
+    
+    /**
+     * Returns true once every message received by the member has been 
+     * handled and every signature queued has been verified, so the CPU time
+     * of the messages has been counted
+     */
+    public boolean isIdle()
+    {
+        return handled.get() == received.get() && receiveController.getVerifier().isIdle();
+    }
+    
+    
+    /**
+     * Returns the number of chat messages received by the member
+     */
+    public long getChatReceived()
+    {
+        return chatReceived.get();
+    }
+    
+    
+    /**
+     * Returns the CPU time in nanoseconds used by the member sending and 
+     * receiving messages, including verifying their signatures
+     */
+    public long getCpuTime()
+    {
+        return cpuTime.get() + receiveController.getVerifier().getCpuTime();
+    }
+    
+    
+    /**
+     * Returns the CPU time in nanoseconds used by the member sending chat 
+     * messages, which is included in the CPU time of the member
+     */
+    public long getChatCpuTime()
+    {
+        return chatCpuTime.get();
+    }
+    
+    
+    /**
+     * Returns the number of messages dropped by the member's filter for the
+     * reason, before they were decoded
+     */
+    public long getDropped(DropReason reason)
+    {
+        return receiveController.getFilter().getDropped(reason);
+    }
+    
+    
+    /**
+     * Leaves the cluster
+     */
+    public void close()
+    {
+        closed = true;
+        session.close();
+    }
+    
+    
+    /**
+     * Sends a message to the channel, the CPU time used is added to the member
+     * @return The CPU time used in nanoseconds
+     */
+    private long send(MessageType type, Object data)
+    {
+        long start = threads.getCurrentThreadCpuTime();
+        sendController.send(type, data, null);
+        long used = threads.getCurrentThreadCpuTime() - start;
+        cpuTime.addAndGet(used);
+        return used;
+    }
+    
+    
+    /**
+     * Trusts every pending authentication request, as the console user would
+     * using /auth
+     */
+    private void approvePending()
+    {
+        PendingRequest request;
+        while ((request = session.getPendingRequests().peek()) != null)
+        {
+            Auth auth = new Auth();
+            auth.setSession(session);
+            auth.setRequest(request);
+            auth.setChoice("t");
+            auth.executeCommand();
+        }
+    }
+    
+    
+    /**
+     * Counts the messages received by the member and the CPU time used to
+     * handle them
+     */
+    private class MemberReceiver extends ReceiverAdapter
+    {
+        private final ReceiveController receiveController;
+        
+        private MemberReceiver(ReceiveController receiveController)
+        {
+            this.receiveController = receiveController;
+        }
+        
+        @Override
+        public void receive(Message msg)
+        {
+            long start = threads.getCurrentThreadCpuTime();
+            
+            /* The message type follows the version in the header */
+            received.incrementAndGet();
+            if (msg.getLength() > 1 
+                    && msg.getRawBuffer()[msg.getOffset() + 1] == MessageType.ENCRYPTED_MESSAGE.getId())
+            {
+                chatReceived.incrementAndGet();
+            }
+            
+            receiveController.receive(msg);
+            
+            cpuTime.addAndGet(threads.getCurrentThreadCpuTime() - start);
+            handled.incrementAndGet();
+        }
+    }
+}
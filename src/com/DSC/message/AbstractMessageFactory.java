@@ -40,15 +40,13 @@ public abstract class AbstractMessageFactory
         switch (type)
         {
             case AUTH_REQUEST:
-                return createAuthRequest(publicKey, signature);
+                return createAuthRequest(publicKey, other, 0, 0, signature);
             case AUTH_ACKNOWLEDGE:
                 return createAuthAcknowledge(publicKey, other, signature);
             case KEY_EXCHANGE:
                 return createKeyExchange(publicKey, signature);
             case KEY:
                 return createKey(publicKey, other, signature);
-            case ENCRYPTED_MESSAGE:
-                return createEncryptedMessage(IV, other, signature);
             default:
                 throw new IllegalArgumentException("Invalid message type!");
         }
@@ -56,13 +54,113 @@ public abstract class AbstractMessageFactory
 
     
     /**
-     * 
+     * Creates an encrypted message backed by its encoded message buffer, the
+     * IV, encrypted message and tag are written directly into the buffer
+     * @param type
+     * @param suite The identifier of the cipher suite used
+     * @param epoch The epoch of the network key used
+     * @param length The length of the encrypted message, not including the tag
+     * @throws IllegalArgumentException
+     */
+    public static EncryptedMessage createMessage(MessageType type, byte suite, long epoch, int length)
+            throws IllegalArgumentException
+    {
+        /* Argument checking */
+        if (type != MessageType.ENCRYPTED_MESSAGE || length < 0)
+        {
+            throw new IllegalArgumentException("Invalid EncryptedMessage message arguments!"); 
+        }
+        
+        return MessageCodec.allocateEncryptedMessage(suite, epoch, length);
+    }
+    
+    
+    /**
+     * Encodes the message in the binary wire format to be sent as the raw
+     * buffer of a JGroups message
+     * @param msg The message to encode
+     * @return The encoded message
+     * @throws IllegalArgumentException
+     */
+    public static byte[] encodeMessage(SecureMessage msg) throws IllegalArgumentException
+    {
+        return MessageCodec.encode(msg);
+    }
+    
+    
+    /**
+     * Creates the message from the raw buffer of a received JGroups message
+     * @param data The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @return The decoded message
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public static SecureMessage decodeMessage(byte[] data, int offset, int length) 
+            throws IllegalArgumentException
+    {
+        return MessageCodec.decode(data, offset, length);
+    }
+
+    
+    /**
+     * Creates an authentication acknowledge carrying the encrypted network key
+     * for the combined handshake
+     * @param publicKey The public key of the member sending the key
+     * @param authKey The authenticated public key
+     * @param symmetricKey The ENCRYPTED symmetric key
+     * @param signature
+     * @throws IllegalArgumentException
+     */
+    public static AuthKey createAuthKey(byte[] publicKey, byte[] authKey, byte[] symmetricKey, 
+            BigInteger[] signature) throws IllegalArgumentException
+    {
+        /* Argument checking */
+        if (publicKey == null || authKey == null || symmetricKey == null || signature == null)
+        {
+            throw new IllegalArgumentException("Invalid AuthKey message arguments!"); 
+        }
+        
+        return new AuthKey(publicKey, authKey, symmetricKey, signature);
+    }
+
+    
+    /**
+     * Creates a rekey message carrying the new network key encrypted for each
+     * member
+     * @param publicKey The public key of the member sending the key
+     * @param timestamp The time the key was sent
+     * @param keyIds The key ids of the members the key is encrypted for
+     * @param symmetricKeys The ENCRYPTED symmetric key for each member
+     * @param excludedIds The key ids of the members removed from the channel
+     * @param signature
+     * @throws IllegalArgumentException
+     */
+    public static Rekey createRekey(byte[] publicKey, long timestamp, long[] keyIds, byte[][] symmetricKeys, 
+            long[] excludedIds, BigInteger[] signature) throws IllegalArgumentException
+    {
+        /* Argument checking */
+        if (publicKey == null || keyIds == null || symmetricKeys == null || excludedIds == null 
+                || signature == null || keyIds.length != symmetricKeys.length)
+        {
+            throw new IllegalArgumentException("Invalid Rekey message arguments!"); 
+        }
+        
+        return new Rekey(publicKey, timestamp, keyIds, symmetricKeys, excludedIds, signature);
+    }
+
+    
+    /**
+     * Creates an authentication request carrying a proof of work stamp
      * @param publicKey
+     * @param flags The handshake options requested, null for none
+     * @param timestamp The time the stamp was minted
+     * @param nonce The nonce of the stamp
      * @param signature
      * @throws IllegalArgumentException
      */
-    private static SecureMessage createAuthRequest(byte[] publicKey, BigInteger[] signature)
-            throws IllegalArgumentException
+    public static AuthRequest createAuthRequest(byte[] publicKey, Object flags, long timestamp, long nonce, 
+            BigInteger[] signature) throws IllegalArgumentException, ClassCastException
     {
         /* Argument checking */
         if (publicKey == null || signature == null)
@@ -70,7 +168,7 @@ public abstract class AbstractMessageFactory
             throw new IllegalArgumentException("Invalid AuthRequest message arguments!"); 
         }
         
-        return new AuthRequest(publicKey, signature);
+        return new AuthRequest(publicKey, timestamp, nonce, flags != null ? (Byte) flags : 0, signature);
     }
 
     
@@ -132,24 +230,4 @@ public abstract class AbstractMessageFactory
         
         return new Key(publicKey, (byte[])symmetricKey, signature);
     }
-
-    
-    /**
-     * 
-     * @param IV
-     * @param message
-     * @param signature
-     * @throws IllegalArgumentException
-     */
-    private static SecureMessage createEncryptedMessage(byte[] IV, Object message, BigInteger[] HMAC) 
-            throws IllegalArgumentException, ClassCastException
-    {
-        /* Argument checking */
-        if (IV == null || message == null || HMAC == null)
-        {
-            throw new IllegalArgumentException("Invalid EncryptedMessage message arguments!"); 
-        }
-        
-        return new EncryptedMessage(IV, (byte[])message, HMAC);
-    }
 }
\ No newline at end of file
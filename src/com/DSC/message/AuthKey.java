@@ -0,0 +1,77 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.message;
+
+import java.math.BigInteger;
+
+/**
+ * An authentication acknowledge sent along with the encrypted network key,
+ * the reply to an authentication request for the combined handshake
+ */
+public class AuthKey implements SecureMessage
+{
+    private static final MessageType type = MessageType.AUTH_KEY;
+    private final byte[] publicKey;
+    private final byte[] authKey;
+    private final byte[] symmetricKey;
+    private final BigInteger[] signature;
+
+    public MessageType getType()
+    {
+        return AuthKey.type;
+    }
+
+    public byte[] getPublicKey()
+    {
+        return this.publicKey;
+    }
+
+    public byte[] getAuthKey()
+    {
+        return this.authKey;
+    }
+
+    public byte[] getSymmetricKey()
+    {
+        return this.symmetricKey;
+    }
+
+    public BigInteger[] getSignature()
+    {
+        return this.signature;
+    }
+
+    /**
+     * 
+     * @param publicKey The public key of the member sending the key
+     * @param authKey The authenticated public key the key is encrypted for
+     * @param symmetricKey The ENCRYPTED symmetric key
+     * @param signature
+     */
+    public AuthKey(byte[] publicKey, byte[] authKey, byte[] symmetricKey, BigInteger[] signature)
+    {
+        this.publicKey = publicKey;
+        this.authKey = authKey;
+        this.symmetricKey = symmetricKey;
+        this.signature = signature;
+    }
+}
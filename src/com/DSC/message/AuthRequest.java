@@ -21,14 +21,18 @@
  */
 package com.DSC.message;
 
-import java.io.Serializable;
 import java.math.BigInteger;
 
-public class AuthRequest implements SecureMessage, Serializable
+public class AuthRequest implements SecureMessage
 {
-    private static final long serialVersionUID = -2115084427555115658L;
+    /* Requests the key be sent with the acknowledgement, see AuthKey */
+    public static final byte COMBINED_HANDSHAKE = 0x01;
+    
     private static final MessageType type = MessageType.AUTH_REQUEST;
     private final byte[] publicKey;
+    private final long timestamp;
+    private final long nonce;
+    private final byte flags;
     private final BigInteger[] signature;
 
     public MessageType getType()
@@ -41,6 +45,26 @@ public class AuthRequest implements SecureMessage, Serializable
         return this.publicKey;
     }
 
+    public long getTimestamp()
+    {
+        return this.timestamp;
+    }
+
+    public long getNonce()
+    {
+        return this.nonce;
+    }
+
+    public byte getFlags()
+    {
+        return this.flags;
+    }
+
+    public boolean isCombinedHandshake()
+    {
+        return (this.flags & COMBINED_HANDSHAKE) != 0;
+    }
+
     public BigInteger[] getSignature()
     {
         return this.signature;
@@ -49,11 +73,17 @@ public class AuthRequest implements SecureMessage, Serializable
     /**
      * 
      * @param publicKey
+     * @param timestamp The time the proof of work stamp was minted
+     * @param nonce The nonce of the proof of work stamp
+     * @param flags The handshake options requested
      * @param signature
      */
-    public AuthRequest(byte[] publicKey, BigInteger[] signature)
+    public AuthRequest(byte[] publicKey, long timestamp, long nonce, byte flags, BigInteger[] signature)
     {
         this.publicKey = publicKey;
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        this.flags = flags;
         this.signature = signature;
     }
 }
\ No newline at end of file
@@ -21,47 +21,89 @@
  */
 package com.DSC.message;
 
-import java.io.Serializable;
-import java.math.BigInteger;
-
-public class EncryptedMessage implements SecureMessage, Serializable
+/**
+ * An encrypted message, the message is a view of the encoded message buffer
+ * so the message can be encrypted directly into the buffer that is sent and
+ * decrypted directly from the buffer that is received.
+ */
+public class EncryptedMessage implements SecureMessage
 {
-    private static final long serialVersionUID = 2633825387881316758L;
     private static final MessageType type = MessageType.ENCRYPTED_MESSAGE;
-    private final byte[] IV;
-    private final byte[] message;
-    private final BigInteger[] HMAC;
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
 
     public MessageType getType()
     {
         return EncryptedMessage.type;
     }
 
-    public byte[] getIV()
+    public byte[] getBuffer()
+    {
+        return this.buffer;
+    }
+
+    public int getOffset()
     {
-        return this.IV;
+        return this.offset;
     }
-    
-    public byte[] getMessage()
+
+    public byte getSuite()
     {
-        return this.message;
+        return this.buffer[this.offset + MessageCodec.SUITE_OFFSET];
     }
 
-    public BigInteger[] getHMAC()
+    public long getEpoch()
+    {
+        return MessageCodec.getEpoch(this.buffer, this.offset);
+    }
+
+    public int getIVOffset()
+    {
+        return this.offset + MessageCodec.IV_OFFSET;
+    }
+
+    public int getSenderId()
+    {
+        return MessageCodec.getSenderId(this.buffer, this.offset);
+    }
+
+    public long getCounter()
+    {
+        return MessageCodec.getCounter(this.buffer, this.offset);
+    }
+
+    public int getMessageOffset()
+    {
+        return this.offset + MessageCodec.MESSAGE_OFFSET;
+    }
+
+    /**
+     * @return The length of the encrypted message, not including the tag
+     */
+    public int getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * @return The length of the encoded message, including the tag
+     */
+    public int getEncodedLength()
     {
-        return this.HMAC;
+        return MessageCodec.MESSAGE_OFFSET + this.length + MessageCodec.TAG_SIZE;
     }
 
     /**
      *
-     * @param IV
-     * @param message
-     * @param HMAC
+     * @param buffer The buffer containing the encoded message
+     * @param offset The offset of the encoded message in the buffer
+     * @param length The length of the encrypted message, not including the tag
      */
-    public EncryptedMessage(byte[] IV, byte[] message, BigInteger[] HMAC)
+    public EncryptedMessage(byte[] buffer, int offset, int length)
     {
-        this.IV = IV;
-        this.message = message;
-        this.HMAC = HMAC;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
     }
 }
\ No newline at end of file
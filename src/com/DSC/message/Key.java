@@ -21,12 +21,10 @@
  */
 package com.DSC.message;
 
-import java.io.Serializable;
 import java.math.BigInteger;
 
-public class Key implements SecureMessage, Serializable
+public class Key implements SecureMessage
 {
-    private static final long serialVersionUID = 732736483964164972L;
     private static final MessageType type = MessageType.KEY;
     private final byte[] publicKey;
     private final byte[] symmetricKey;
@@ -21,12 +21,10 @@
  */
 package com.DSC.message;
 
-import java.io.Serializable;
 import java.math.BigInteger;
 
-public class KeyExchange implements SecureMessage, Serializable
+public class KeyExchange implements SecureMessage
 {
-    private static final long serialVersionUID = 2104788822717289658L;
     private static final MessageType type = MessageType.KEY_EXCHANGE;
     private final byte[] publicKey;
     private final BigInteger[] signature;
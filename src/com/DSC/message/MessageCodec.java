@@ -0,0 +1,606 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.message;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact binary wire format for the secure messages, every message starts
+ * with a version and type byte followed by the fixed width fields for the
+ * type, variable length fields are prefixed with their length.
+ * 
+ *     AUTH_REQUEST       version | type | pubKey[33] | timestamp[8] | nonce[8] | flags | signature[64]
+ *     AUTH_ACKNOWLEDGE   version | type | pubKey[33] | authKey[33] | signature[64]
+ *     KEY_EXCHANGE       version | type | pubKey[33] | signature[64]
+ *     KEY                version | type | pubKey[33] | len[2] | key[len] | signature[64]
+ *     ENCRYPTED_MESSAGE  version | type | suite | epoch[4] | IV[12] | len[4] | message[len] | tag[16]
+ *     AUTH_KEY           version | type | pubKey[33] | authKey[33] | len[2] | key[len] | signature[64]
+ *     REKEY              version | type | pubKey[33] | timestamp[8] | count[2] | len[2] 
+ *                        | (keyId[8] | key[len]) * count | excluded[2] | keyId[8] * excluded 
+ *                        | signature[64]
+ * 
+ * The IV of an encrypted message is the sender's id followed by the sender's
+ * message counter, senderId[4] | counter[8], so that receivers can reject
+ * replayed messages before decrypting them. The epoch of an encrypted 
+ * message is the epoch of the ratcheted network key it is encrypted with.
+ * The key id of a member is the 8 bytes following the prefix of their 
+ * compressed public key. Encrypted network keys are prefixed with the nonce
+ * used to encrypt them. The excluded key ids of a rekey message are the 
+ * members removed from the channel.
+ * 
+ * The tag follows the encrypted message so that messages can be encrypted
+ * and decrypted in place in the message buffer. The public key, timestamp
+ * and nonce of an authentication request are its proof of work stamp, which
+ * is hashed in place in the message buffer.
+ */
+public abstract class MessageCodec
+{
+    public static final byte VERSION = 0x0A;
+    
+    /* Fixed field widths */
+    public static final int HEADER_SIZE = 2;
+    public static final int PUBLIC_KEY_SIZE = 33;       // Compressed secp256r1 point
+    public static final int SIGNATURE_SIZE = 64;        // r || s
+    public static final int IV_SIZE = 12;               // senderId[4] | counter[8]
+    public static final int SENDER_ID_SIZE = 4;
+    public static final int EPOCH_SIZE = 4;
+    public static final int TAG_SIZE = 16;              // HMAC or AEAD tag
+    public static final int TIMESTAMP_SIZE = 8;
+    public static final int NONCE_SIZE = 8;
+    public static final int KEY_ID_SIZE = 8;
+    
+    /* Limits on the variable length fields */
+    public static final int MAX_KEY_SIZE = 256;         // Encrypted network key
+    public static final int MAX_MESSAGE_SIZE = 1 << 20;
+    public static final int MAX_REKEY_ENTRIES = 4096;   // Members sent a new network key at once
+    
+    /* Field offsets in the messages carrying public keys */
+    public static final int PUBLIC_KEY_OFFSET = HEADER_SIZE;
+    public static final int AUTH_KEY_OFFSET = PUBLIC_KEY_OFFSET + PUBLIC_KEY_SIZE;
+    public static final int TIMESTAMP_OFFSET = PUBLIC_KEY_OFFSET + PUBLIC_KEY_SIZE;
+    public static final int REKEY_COUNT_OFFSET = TIMESTAMP_OFFSET + TIMESTAMP_SIZE;
+    public static final int REKEY_ENTRY_OFFSET = REKEY_COUNT_OFFSET + 4;
+    
+    /* Encrypted message field offsets */
+    public static final int SUITE_OFFSET = HEADER_SIZE;
+    public static final int EPOCH_OFFSET = SUITE_OFFSET + 1;
+    public static final int IV_OFFSET = EPOCH_OFFSET + EPOCH_SIZE;
+    public static final int COUNTER_OFFSET = IV_OFFSET + SENDER_ID_SIZE;
+    public static final int LENGTH_OFFSET = IV_OFFSET + IV_SIZE;
+    public static final int MESSAGE_OFFSET = LENGTH_OFFSET + 4;
+    
+    private static final int SIGNATURE_INT_SIZE = SIGNATURE_SIZE / 2;
+    
+    
+    /**
+     * Encodes the secure message in the binary wire format
+     * @param msg The message to encode
+     * @return The encoded message
+     * @throws IllegalArgumentException if a field does not fit the wire format
+     */
+    public static byte[] encode(SecureMessage msg) throws IllegalArgumentException
+    {
+        ByteBuffer buf;
+        
+        switch (msg.getType())
+        {
+            case AUTH_REQUEST:
+                AuthRequest authRequest = (AuthRequest) msg;
+                buf = header(msg.getType(), PUBLIC_KEY_SIZE + TIMESTAMP_SIZE + NONCE_SIZE + 1 + SIGNATURE_SIZE);
+                putPublicKey(buf, authRequest.getPublicKey());
+                buf.putLong(authRequest.getTimestamp());
+                buf.putLong(authRequest.getNonce());
+                buf.put(authRequest.getFlags());
+                putSignature(buf, authRequest.getSignature());
+                break;
+            case AUTH_ACKNOWLEDGE:
+                AuthAcknowledge authAcknowledge = (AuthAcknowledge) msg;
+                buf = header(msg.getType(), 2 * PUBLIC_KEY_SIZE + SIGNATURE_SIZE);
+                putPublicKey(buf, authAcknowledge.getPublicKey());
+                putPublicKey(buf, authAcknowledge.getAuthKey());
+                putSignature(buf, authAcknowledge.getSignature());
+                break;
+            case KEY_EXCHANGE:
+                KeyExchange keyExchange = (KeyExchange) msg;
+                buf = header(msg.getType(), PUBLIC_KEY_SIZE + SIGNATURE_SIZE);
+                putPublicKey(buf, keyExchange.getPublicKey());
+                putSignature(buf, keyExchange.getSignature());
+                break;
+            case KEY:
+                Key key = (Key) msg;
+                if (key.getSymmetricKey().length > MAX_KEY_SIZE)
+                {
+                    throw new IllegalArgumentException("Invalid Key message length!");
+                }
+                buf = header(msg.getType(), PUBLIC_KEY_SIZE + 2 + key.getSymmetricKey().length + SIGNATURE_SIZE);
+                putPublicKey(buf, key.getPublicKey());
+                buf.putShort((short) key.getSymmetricKey().length);
+                buf.put(key.getSymmetricKey());
+                putSignature(buf, key.getSignature());
+                break;
+            case AUTH_KEY:
+                AuthKey authKey = (AuthKey) msg;
+                if (authKey.getSymmetricKey().length > MAX_KEY_SIZE)
+                {
+                    throw new IllegalArgumentException("Invalid AuthKey message length!");
+                }
+                buf = header(msg.getType(), 
+                        2 * PUBLIC_KEY_SIZE + 2 + authKey.getSymmetricKey().length + SIGNATURE_SIZE);
+                putPublicKey(buf, authKey.getPublicKey());
+                putPublicKey(buf, authKey.getAuthKey());
+                buf.putShort((short) authKey.getSymmetricKey().length);
+                buf.put(authKey.getSymmetricKey());
+                putSignature(buf, authKey.getSignature());
+                break;
+            case REKEY:
+                Rekey rekey = (Rekey) msg;
+                long[] keyIds = rekey.getKeyIds();
+                byte[][] symmetricKeys = rekey.getSymmetricKeys();
+                long[] excludedIds = rekey.getExcludedIds();
+                int keySize = symmetricKeys.length > 0 ? symmetricKeys[0].length : 0;
+                long entriesSize = rekeyEntriesSize(keyIds.length, keySize);
+                
+                /* Every member's key is the same length, so the length is only sent once */
+                if (keyIds.length != symmetricKeys.length || entriesSize < 0 
+                        || excludedIds.length > MAX_REKEY_ENTRIES
+                        || entriesSize + excludedIds.length * KEY_ID_SIZE > MAX_MESSAGE_SIZE)
+                {
+                    throw new IllegalArgumentException("Invalid Rekey message length!");
+                }
+                buf = header(msg.getType(), PUBLIC_KEY_SIZE + TIMESTAMP_SIZE + 4 + (int) entriesSize 
+                        + 2 + excludedIds.length * KEY_ID_SIZE + SIGNATURE_SIZE);
+                putPublicKey(buf, rekey.getPublicKey());
+                buf.putLong(rekey.getTimestamp());
+                buf.putShort((short) keyIds.length);
+                buf.putShort((short) keySize);
+                for (int i = 0; i < keyIds.length; ++i)
+                {
+                    if (symmetricKeys[i].length != keySize)
+                    {
+                        throw new IllegalArgumentException("Invalid Rekey message length!");
+                    }
+                    buf.putLong(keyIds[i]);
+                    buf.put(symmetricKeys[i]);
+                }
+                buf.putShort((short) excludedIds.length);
+                for (long excludedId : excludedIds)
+                {
+                    buf.putLong(excludedId);
+                }
+                putSignature(buf, rekey.getSignature());
+                break;
+            case ENCRYPTED_MESSAGE:
+                /* Encrypted messages are already encoded in their buffer */
+                EncryptedMessage encryptedMessage = (EncryptedMessage) msg;
+                byte[] encoded = encryptedMessage.getBuffer();
+                int start = encryptedMessage.getOffset();
+                int end = start + encryptedMessage.getEncodedLength();
+                
+                if (start == 0 && end == encoded.length)
+                {
+                    return encoded;
+                }
+                return Arrays.copyOfRange(encoded, start, end);
+            default:
+                throw new IllegalArgumentException("Invalid message type!");
+        }
+        
+        return buf.array();
+    }
+    
+    
+    /**
+     * Decodes a secure message from the binary wire format
+     * @param data The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @return The decoded message
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public static SecureMessage decode(byte[] data, int offset, int length) 
+            throws IllegalArgumentException
+    {
+        if (data == null || length < HEADER_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid message length!");
+        }
+        
+        ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
+        
+        if (buf.get() != VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported message version!");
+        }
+        
+        try
+        {
+            SecureMessage msg;
+            
+            switch (MessageType.fromId(buf.get()))
+            {
+                case AUTH_REQUEST:
+                    msg = new AuthRequest(getBytes(buf, PUBLIC_KEY_SIZE), buf.getLong(), buf.getLong(), 
+                            buf.get(), getSignature(buf));
+                    break;
+                case AUTH_ACKNOWLEDGE:
+                    msg = new AuthAcknowledge(getBytes(buf, PUBLIC_KEY_SIZE), 
+                            getBytes(buf, PUBLIC_KEY_SIZE), getSignature(buf));
+                    break;
+                case KEY_EXCHANGE:
+                    msg = new KeyExchange(getBytes(buf, PUBLIC_KEY_SIZE), getSignature(buf));
+                    break;
+                case KEY:
+                    byte[] publicKey = getBytes(buf, PUBLIC_KEY_SIZE);
+                    byte[] symmetricKey = getBytes(buf, buf.getShort() & 0xFFFF);
+                    msg = new Key(publicKey, symmetricKey, getSignature(buf));
+                    break;
+                case AUTH_KEY:
+                    byte[] senderKey = getBytes(buf, PUBLIC_KEY_SIZE);
+                    byte[] authKey = getBytes(buf, PUBLIC_KEY_SIZE);
+                    byte[] encryptedKey = getBytes(buf, buf.getShort() & 0xFFFF);
+                    msg = new AuthKey(senderKey, authKey, encryptedKey, getSignature(buf));
+                    break;
+                case REKEY:
+                    byte[] rekeyKey = getBytes(buf, PUBLIC_KEY_SIZE);
+                    long timestamp = buf.getLong();
+                    int count = buf.getShort() & 0xFFFF;
+                    int keySize = buf.getShort() & 0xFFFF;
+                    long entriesSize = rekeyEntriesSize(count, keySize);
+                    if (entriesSize < 0 || buf.remaining() < entriesSize + 2 + SIGNATURE_SIZE)
+                    {
+                        throw new IllegalArgumentException("Invalid message length!");
+                    }
+                    long[] keyIds = new long[count];
+                    byte[][] symmetricKeys = new byte[count][];
+                    for (int i = 0; i < count; ++i)
+                    {
+                        keyIds[i] = buf.getLong();
+                        symmetricKeys[i] = getBytes(buf, keySize);
+                    }
+                    int excluded = buf.getShort() & 0xFFFF;
+                    if (! isValidExcluded(excluded, buf.remaining()))
+                    {
+                        throw new IllegalArgumentException("Invalid message length!");
+                    }
+                    long[] excludedIds = new long[excluded];
+                    for (int i = 0; i < excluded; ++i)
+                    {
+                        excludedIds[i] = buf.getLong();
+                    }
+                    msg = new Rekey(rekeyKey, timestamp, keyIds, symmetricKeys, excludedIds, getSignature(buf));
+                    break;
+                case ENCRYPTED_MESSAGE:
+                    /* The message is a view of the buffer, nothing is copied */
+                    if (length < MESSAGE_OFFSET + TAG_SIZE)
+                    {
+                        throw new IllegalArgumentException("Invalid message length!");
+                    }
+                    buf.position(offset + LENGTH_OFFSET);
+                    int messageLength = buf.getInt();
+                    if (messageLength < 0 || buf.remaining() != messageLength + TAG_SIZE)
+                    {
+                        throw new IllegalArgumentException("Invalid message length!");
+                    }
+                    buf.position(buf.limit());
+                    msg = new EncryptedMessage(data, offset, messageLength);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid message type!");
+            }
+            
+            if (buf.hasRemaining())
+            {
+                throw new IllegalArgumentException("Invalid message length!");
+            }
+            return msg;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Invalid message length!");
+        }
+    }
+    
+    
+    /**
+     * Returns true if the length is possible for an encoded message of the 
+     * type, so that messages can be checked before they are decoded
+     * @param type The message type
+     * @param length The length of the encoded message
+     */
+    public static boolean isValidLength(MessageType type, int length)
+    {
+        switch (type)
+        {
+            case AUTH_REQUEST:
+                return length == HEADER_SIZE + PUBLIC_KEY_SIZE + TIMESTAMP_SIZE + NONCE_SIZE + 1 + SIGNATURE_SIZE;
+            case AUTH_ACKNOWLEDGE:
+                return length == HEADER_SIZE + 2 * PUBLIC_KEY_SIZE + SIGNATURE_SIZE;
+            case KEY_EXCHANGE:
+                return length == HEADER_SIZE + PUBLIC_KEY_SIZE + SIGNATURE_SIZE;
+            case KEY:
+                return isWithin(length, HEADER_SIZE + PUBLIC_KEY_SIZE + 2 + SIGNATURE_SIZE, MAX_KEY_SIZE);
+            case AUTH_KEY:
+                return isWithin(length, HEADER_SIZE + 2 * PUBLIC_KEY_SIZE + 2 + SIGNATURE_SIZE, MAX_KEY_SIZE);
+            case REKEY:
+                return isWithin(length, REKEY_ENTRY_OFFSET + 2 + SIGNATURE_SIZE, MAX_MESSAGE_SIZE);
+            case ENCRYPTED_MESSAGE:
+                return isWithin(length, MESSAGE_OFFSET + TAG_SIZE, MAX_MESSAGE_SIZE);
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * Allocates an encoded encrypted message with the header written, the IV,
+     * encrypted message and tag are written directly into the message buffer
+     * @param suite The identifier of the cipher suite used
+     * @param epoch The epoch of the network key used
+     * @param length The length of the encrypted message, not including the tag
+     * @return The encrypted message
+     * @throws IllegalArgumentException if the message is too long
+     */
+    public static EncryptedMessage allocateEncryptedMessage(byte suite, long epoch, int length)
+    {
+        if (length > MAX_MESSAGE_SIZE)
+        {
+            throw new IllegalArgumentException("Message is too long!");
+        }
+        
+        ByteBuffer buf = header(MessageType.ENCRYPTED_MESSAGE, 1 + EPOCH_SIZE + IV_SIZE + 4 + length + TAG_SIZE);
+        buf.put(suite);
+        buf.putInt((int) epoch);
+        buf.position(LENGTH_OFFSET);
+        buf.putInt(length);
+        
+        return new EncryptedMessage(buf.array(), 0, length);
+    }
+    
+    
+    /**
+     * Returns the key id of the member with the public key
+     * @param publicKey The compressed encoding of the public key
+     * @return The key id
+     */
+    public static long getKeyId(byte[] publicKey)
+    {
+        return getLong(publicKey, 1, KEY_ID_SIZE);
+    }
+    
+    
+    /**
+     * Returns true if a rekey message carries a key for the member with the
+     * key id, so that the message can be checked before it is decoded
+     * @param buf The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @param keyId The key id of the member
+     */
+    public static boolean hasRekeyEntry(byte[] buf, int offset, int length, long keyId)
+    {
+        if (length < REKEY_ENTRY_OFFSET + 2 + SIGNATURE_SIZE)
+        {
+            return false;
+        }
+        
+        int count = (int) getLong(buf, offset + REKEY_COUNT_OFFSET, 2);
+        int keySize = (int) getLong(buf, offset + REKEY_COUNT_OFFSET + 2, 2);
+        long entriesSize = rekeyEntriesSize(count, keySize);
+        if (entriesSize < 0 || length < REKEY_ENTRY_OFFSET + entriesSize + 2 + SIGNATURE_SIZE)
+        {
+            return false;
+        }
+        
+        /* The excluded members follow the keys */
+        int excludedOffset = offset + REKEY_ENTRY_OFFSET + (int) entriesSize;
+        int excluded = (int) getLong(buf, excludedOffset, 2);
+        if (! isValidExcluded(excluded, offset + length - excludedOffset - 2))
+        {
+            return false;
+        }
+        
+        int entrySize = KEY_ID_SIZE + keySize;
+        
+        for (int i = 0, entry = offset + REKEY_ENTRY_OFFSET; i < count; ++i, entry += entrySize)
+        {
+            if (getLong(buf, entry, KEY_ID_SIZE) == keyId)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Returns the length of the keys of a rekey message, the count and key 
+     * size are checked before the length is computed so it cannot overflow
+     * @param count The number of keys
+     * @param keySize The length of each encrypted key
+     * @return The length of the keys, or -1 if the count or key size is over the limits
+     */
+    private static long rekeyEntriesSize(int count, int keySize)
+    {
+        if (count > MAX_REKEY_ENTRIES || keySize > MAX_KEY_SIZE)
+        {
+            return -1;
+        }
+        return (long) count * (KEY_ID_SIZE + keySize);
+    }
+    
+    
+    /**
+     * Returns true if the number of excluded members of a rekey message is
+     * within the limit and their key ids and the signature exactly fill the 
+     * rest of the message
+     * @param excluded The number of excluded members
+     * @param remaining The length of the message following the count
+     */
+    private static boolean isValidExcluded(int excluded, int remaining)
+    {
+        return excluded <= MAX_REKEY_ENTRIES && remaining == (long) excluded * KEY_ID_SIZE + SIGNATURE_SIZE;
+    }
+    
+    
+    /**
+     * Writes the IV of an encrypted message, the sender's id and counter
+     * @param buf The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     * @param senderId The sender's id
+     * @param counter The sender's message counter
+     */
+    public static void putIV(byte[] buf, int offset, int senderId, long counter)
+    {
+        ByteBuffer iv = ByteBuffer.wrap(buf, offset + IV_OFFSET, IV_SIZE);
+        iv.putInt(senderId);
+        iv.putLong(counter);
+    }
+    
+    
+    /**
+     * Returns the epoch of the network key an encrypted message is encrypted
+     * with
+     * @param buf The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     */
+    public static long getEpoch(byte[] buf, int offset)
+    {
+        return getLong(buf, offset + EPOCH_OFFSET, EPOCH_SIZE);
+    }
+    
+    
+    /**
+     * Returns the sender's id from the IV of an encrypted message
+     * @param buf The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     */
+    public static int getSenderId(byte[] buf, int offset)
+    {
+        return (int) getLong(buf, offset + IV_OFFSET, SENDER_ID_SIZE);
+    }
+    
+    
+    /**
+     * Returns the sender's message counter from the IV of an encrypted message
+     * @param buf The buffer containing the encoded message
+     * @param offset The offset of the message in the buffer
+     */
+    public static long getCounter(byte[] buf, int offset)
+    {
+        return getLong(buf, offset + COUNTER_OFFSET, IV_SIZE - SENDER_ID_SIZE);
+    }
+    
+    
+    /**
+     * Reads a big-endian number without wrapping the buffer
+     */
+    private static long getLong(byte[] buf, int offset, int size)
+    {
+        long value = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+    
+    
+    /**
+     * Allocates the buffer for a message and writes the message header
+     */
+    private static ByteBuffer header(MessageType type, int bodySize)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        buf.put(VERSION);
+        buf.put(type.getId());
+        return buf;
+    }
+    
+    
+    private static boolean isWithin(int length, int fixedSize, int maxVariableSize)
+    {
+        return length >= fixedSize && length <= fixedSize + maxVariableSize;
+    }
+    
+    
+    private static void putPublicKey(ByteBuffer buf, byte[] publicKey)
+    {
+        if (publicKey.length != PUBLIC_KEY_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid public key length!");
+        }
+        buf.put(publicKey);
+    }
+    
+    
+    private static void putSignature(ByteBuffer buf, BigInteger[] signature)
+    {
+        putUnsigned(buf, signature[0], SIGNATURE_INT_SIZE);
+        putUnsigned(buf, signature[1], SIGNATURE_INT_SIZE);
+    }
+    
+    
+    private static BigInteger[] getSignature(ByteBuffer buf)
+    {
+        BigInteger r = new BigInteger(1, getBytes(buf, SIGNATURE_INT_SIZE));
+        BigInteger s = new BigInteger(1, getBytes(buf, SIGNATURE_INT_SIZE));
+        return new BigInteger[] { r, s };
+    }
+    
+    
+    /**
+     * Writes a non-negative integer as a fixed width unsigned big-endian value
+     */
+    private static void putUnsigned(ByteBuffer buf, BigInteger value, int width)
+    {
+        byte[] bytes = value.toByteArray();
+        int start = (bytes.length > width && bytes[0] == 0) ? 1 : 0;
+        int len = bytes.length - start;
+        
+        if (value.signum() < 0 || len > width)
+        {
+            throw new IllegalArgumentException("Integer too large for field!");
+        }
+        
+        for (int i = len; i < width; ++i)
+        {
+            buf.put((byte) 0);
+        }
+        buf.put(bytes, start, len);
+    }
+    
+    
+    private static byte[] getBytes(ByteBuffer buf, int length)
+    {
+        if (length < 0 || length > buf.remaining())
+        {
+            throw new IllegalArgumentException("Invalid message length!");
+        }
+        
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+}
@@ -23,9 +23,66 @@ package com.DSC.message;
 
 public enum MessageType
 {
-    AUTH_REQUEST,
-    AUTH_ACKNOWLEDGE,
-    KEY_EXCHANGE,
-    KEY,
-    ENCRYPTED_MESSAGE
-}
\ No newline at end of file
+    AUTH_REQUEST((byte) 0x01),
+    AUTH_ACKNOWLEDGE((byte) 0x02),
+    KEY_EXCHANGE((byte) 0x03),
+    KEY((byte) 0x04),
+    ENCRYPTED_MESSAGE((byte) 0x05),
+    AUTH_KEY((byte) 0x06),
+    REKEY((byte) 0x07);
+    
+    private final byte id;
+    
+    /* Message types indexed by identifier, values() copies the array on every call */
+    private static final MessageType[] types = new MessageType[256];
+    
+    static
+    {
+        for (MessageType type : values())
+        {
+            types[type.id & 0xFF] = type;
+        }
+    }
+    
+    private MessageType(byte id)
+    {
+        this.id = id;
+    }
+    
+    /**
+     * Returns the type identifier used for the message on the wire
+     * @return the type identifier
+     */
+    public byte getId()
+    {
+        return this.id;
+    }
+    
+    /**
+     * Returns the message type for the wire identifier provided
+     * @param id The type identifier
+     * @return The message type
+     * @throws IllegalArgumentException if the identifier is not a valid type
+     */
+    public static MessageType fromId(byte id) throws IllegalArgumentException
+    {
+        MessageType type = lookup(id);
+        
+        if (type == null)
+        {
+            throw new IllegalArgumentException("Invalid message type!");
+        }
+        return type;
+    }
+    
+    /**
+     * Returns the message type for the wire identifier provided, without 
+     * throwing so that unknown types can be dropped cheaply
+     * @param id The type identifier
+     * @return The message type, or null if the identifier is not a valid type
+     */
+    public static MessageType lookup(byte id)
+    {
+        return types[id & 0xFF];
+    }
+}
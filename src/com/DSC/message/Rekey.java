@@ -0,0 +1,114 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.message;
+
+import java.math.BigInteger;
+
+/**
+ * A new network key multicast to the channel, the key is encrypted for each
+ * trusted member of the sender and the message is signed once. Each 
+ * encrypted key is identified by the key id of the member it is for. The key
+ * ids of the members removed from the channel are signed along with the keys,
+ * so no member passes the key on to them.
+ */
+public class Rekey implements SecureMessage
+{
+    private static final MessageType type = MessageType.REKEY;
+    private final byte[] publicKey;
+    private final long timestamp;
+    private final long[] keyIds;
+    private final byte[][] symmetricKeys;
+    private final long[] excludedIds;
+    private final BigInteger[] signature;
+
+    public MessageType getType()
+    {
+        return Rekey.type;
+    }
+
+    public byte[] getPublicKey()
+    {
+        return this.publicKey;
+    }
+
+    public long getTimestamp()
+    {
+        return this.timestamp;
+    }
+
+    public long[] getKeyIds()
+    {
+        return this.keyIds;
+    }
+
+    public byte[][] getSymmetricKeys()
+    {
+        return this.symmetricKeys;
+    }
+
+    public long[] getExcludedIds()
+    {
+        return this.excludedIds;
+    }
+
+    public BigInteger[] getSignature()
+    {
+        return this.signature;
+    }
+
+    /**
+     * Returns the ENCRYPTED symmetric key for the member with the key id
+     * @param keyId The key id of the member
+     * @return The encrypted key, or null if there is no key for the member
+     */
+    public byte[] getSymmetricKey(long keyId)
+    {
+        for (int i = 0; i < this.keyIds.length; ++i)
+        {
+            if (this.keyIds[i] == keyId)
+            {
+                return this.symmetricKeys[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 
+     * @param publicKey The public key of the member sending the key
+     * @param timestamp The time the key was sent, newer keys replace older keys
+     * @param keyIds The key ids of the members the key is encrypted for
+     * @param symmetricKeys The ENCRYPTED symmetric key for each member
+     * @param excludedIds The key ids of the members removed from the channel
+     * @param signature
+     */
+    public Rekey(byte[] publicKey, long timestamp, long[] keyIds, byte[][] symmetricKeys, 
+            long[] excludedIds, BigInteger[] signature)
+    {
+        this.publicKey = publicKey;
+        this.timestamp = timestamp;
+        this.keyIds = keyIds;
+        this.symmetricKeys = symmetricKeys;
+        this.excludedIds = excludedIds;
+        this.signature = signature;
+    }
+}
@@ -0,0 +1,419 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.Receiver;
+import org.jgroups.conf.ConfiguratorFactory;
+import org.jgroups.conf.ProtocolStackConfigurator;
+
+import com.DSC.controller.ReceiveController;
+import com.DSC.controller.VerificationQueue;
+import com.DSC.crypto.KeyRatchet;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * The state of a single secure channel: the JGroups channel, the network keys,
+ * the trusted members and the handshakes in progress. A process can be a
+ * member of any number of channels, each with its own session. The channels
+ * created share a single transport and its thread pools, and the signatures
+ * of every session are verified by a shared pool of threads.
+ */
+public class ChannelSession
+{
+    /* Authentication requests awaiting a decision */
+    public static final int MAX_PENDING_REQUESTS = 64;
+    
+    /* New network keys older than this are not accepted, in milliseconds */
+    public static final long REKEY_LIFETIME = TimeUnit.MINUTES.toMillis(5);
+    
+    /* The name of the transport shared by the channels of every session */
+    public static final String SHARED_TRANSPORT = "dsc-transport";
+    
+    /* Message handling states */
+    private volatile boolean authenticationRequest = false;
+    private volatile boolean authenticated = false;
+    private volatile boolean keyExchangeRequest = false;
+    private volatile boolean keyReceived = false;
+    
+    /* Completed once authenticated and once the network key is received */
+    private volatile SettableFuture<ChannelSession> authentication;
+    private volatile SettableFuture<ChannelSession> keyExchange;
+    
+    /* Channel */
+    private final JChannel channel;
+    
+    /* Handshakes with members joining the channel, and their signatures to verify */
+    private final HandshakeTable handshakes;
+    private final ConcurrentLinkedQueue<PendingRequest> pendingRequests;
+    private final VerificationQueue verifier;
+    
+    /* Channel security: trusted members, blacklist, and network keys */
+    private final TrustedMembers trustedMembers;
+    private final ConcurrentHashMultiset<Address> blacklist;
+    private final KeyBlacklist keyBlacklist;
+    private final ECPublicKeyParameters publicKey;
+    private final ECPrivateKeyParameters privateKey;
+    
+    /* 
+     * The IVs of the messages sent, and the replay windows of each sender. The
+     * windows are kept by sender id rather than with the trusted members, an
+     * encrypted message carries only the sender id and members keyed by 
+     * another member are never in the trusted members table
+     */
+    private final int senderId;
+    private final AtomicLong sendCounter;
+    private final ConcurrentHashMap<Integer, ReplayWindow> replayWindows;
+    
+    /* The time the current network key was sent, to ignore older keys */
+    private final AtomicLong rekeyed;
+    private volatile KeyRatchet keys;
+    private volatile String passphrase;
+    
+    
+    /**
+     * Creates a session for the channel provided, the channel is not connected
+     * until connect() is called
+     * @param channel The JGroups channel
+     * @param publicKey The public key of the member
+     * @param privateKey The private key of the member
+     */
+    public ChannelSession(JChannel channel, ECPublicKeyParameters publicKey, 
+            ECPrivateKeyParameters privateKey)
+    {
+        this.channel = channel;
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+        
+        this.handshakes = new HandshakeTable();
+        this.pendingRequests = new ConcurrentLinkedQueue<PendingRequest>();
+        this.verifier = new VerificationQueue();
+        this.trustedMembers = new TrustedMembers();
+        this.blacklist = ConcurrentHashMultiset.create();
+        this.keyBlacklist = new KeyBlacklist();
+        
+        /* 
+         * The sender id and the start of the counter are random, so that two
+         * members sharing the network key never use the same IV
+         */
+        SecureRandom random = new SecureRandom();
+        this.senderId = random.nextInt();
+        this.sendCounter = new AtomicLong(random.nextLong() >>> 2);
+        this.replayWindows = new ConcurrentHashMap<Integer, ReplayWindow>();
+        this.rekeyed = new AtomicLong(0);
+    }
+    
+    
+    /**
+     * Creates a JGroups channel using the default UDP protocol stack, every
+     * channel created shares a single transport and its thread pools, so a
+     * process can be a member of many channels without a socket and thread 
+     * pools for each channel
+     * @return The JGroups channel
+     * @throws Exception
+     */
+    public static JChannel createChannel() throws Exception
+    {
+        ProtocolStackConfigurator config = ConfiguratorFactory.getStackConfigurator(
+                JChannel.DEFAULT_PROTOCOL_STACK);
+        config.getProtocolStack().get(0).getProperties().put("singleton_name", SHARED_TRANSPORT);
+        return new JChannel(config);
+    }
+    
+    
+    /**
+     * Connects to the channel, messages received are handled by a 
+     * ReceiveController bound to the session
+     * @param name The name of the channel
+     * @throws Exception
+     */
+    public void connect(String name) throws Exception
+    {
+        connect(name, new ReceiveController(this));
+    }
+    
+    
+    /**
+     * Connects to the channel using the receiver provided
+     * @param name The name of the channel
+     * @param receiver The receiver for messages sent to the channel
+     * @throws Exception
+     */
+    public void connect(String name, Receiver receiver) throws Exception
+    {
+        channel.setDiscardOwnMessages(true);
+        channel.setReceiver(receiver);
+        channel.connect(name);
+    }
+    
+    
+    /**
+     * Leaves the channel and stops verifying the signatures of the session,
+     * the shared transport is closed once every channel using it is closed
+     */
+    public void close()
+    {
+        channel.close();
+        verifier.stop();
+    }
+    
+    
+    /**
+     * Returns the name of the channel, or null if not connected
+     */
+    public String getName()
+    {
+        return channel.getClusterName();
+    }
+    
+    public JChannel getChannel()
+    {
+        return channel;
+    }
+    
+    public boolean isAuthenticationRequest()
+    {
+        return authenticationRequest;
+    }
+    
+    public void setAuthenticationRequest(boolean authenticationRequest)
+    {
+        this.authenticationRequest = authenticationRequest;
+    }
+    
+    public boolean isAuthenticated()
+    {
+        return authenticated;
+    }
+    
+    public void setAuthenticated(boolean authenticated)
+    {
+        this.authenticated = authenticated;
+        
+        SettableFuture<ChannelSession> future = this.authentication;
+        if (authenticated && future != null)
+        {
+            future.set(this);
+        }
+    }
+    
+    /**
+     * Returns a future that is completed once authenticated, must be called
+     * before requesting authentication so the acknowledgement is not missed
+     * @return The future, already completed if authenticated
+     */
+    public SettableFuture<ChannelSession> expectAuthentication()
+    {
+        SettableFuture<ChannelSession> future = SettableFuture.create();
+        this.authentication = future;
+        
+        if (this.authenticated)
+        {
+            future.set(this);
+        }
+        return future;
+    }
+    
+    public boolean isKeyExchangeRequest()
+    {
+        return keyExchangeRequest;
+    }
+    
+    public void setKeyExchangeRequest(boolean keyExchangeRequest)
+    {
+        this.keyExchangeRequest = keyExchangeRequest;
+    }
+    
+    public boolean isKeyReceived()
+    {
+        return keyReceived;
+    }
+    
+    public void setKeyReceived(boolean keyReceived)
+    {
+        this.keyReceived = keyReceived;
+        
+        SettableFuture<ChannelSession> future = this.keyExchange;
+        if (keyReceived && future != null)
+        {
+            future.set(this);
+        }
+    }
+    
+    /**
+     * Returns a future that is completed once the network key is received, 
+     * must be called before requesting the key so the key is not missed
+     * @return The future, already completed if the key has been received
+     */
+    public SettableFuture<ChannelSession> expectKey()
+    {
+        SettableFuture<ChannelSession> future = SettableFuture.create();
+        this.keyExchange = future;
+        
+        if (this.keyReceived)
+        {
+            future.set(this);
+        }
+        return future;
+    }
+    
+    public HandshakeTable getHandshakes()
+    {
+        return handshakes;
+    }
+    
+    public ConcurrentLinkedQueue<PendingRequest> getPendingRequests()
+    {
+        return pendingRequests;
+    }
+    
+    public VerificationQueue getVerifier()
+    {
+        return verifier;
+    }
+    
+    public TrustedMembers getTrustedMembers()
+    {
+        return trustedMembers;
+    }
+    
+    public ConcurrentHashMultiset<Address> getBlacklist()
+    {
+        return blacklist;
+    }
+    
+    public KeyBlacklist getKeyBlacklist()
+    {
+        return keyBlacklist;
+    }
+    
+    public ECPublicKeyParameters getPublicKey()
+    {
+        return publicKey;
+    }
+    
+    public ECPrivateKeyParameters getPrivateKey()
+    {
+        return privateKey;
+    }
+    
+    public int getSenderId()
+    {
+        return senderId;
+    }
+    
+    /**
+     * Returns the counter for the next message sent, the counter only ever
+     * increases
+     * @return The message counter
+     */
+    public long nextCounter()
+    {
+        return sendCounter.getAndIncrement();
+    }
+    
+    /**
+     * Returns the replay window of the sender
+     * @param senderId The sender's id
+     * @return The replay window, or null if no message has been accepted from
+     * the sender
+     */
+    public ReplayWindow getReplayWindow(int senderId)
+    {
+        return replayWindows.get(senderId);
+    }
+    
+    /**
+     * Returns the replay window of the sender, the window is created once the
+     * first message from the sender is authenticated
+     * @param senderId The sender's id
+     * @param counter The counter of the message authenticated
+     * @return The replay window
+     */
+    public ReplayWindow addReplayWindow(int senderId, long counter)
+    {
+        ReplayWindow window = replayWindows.get(senderId);
+        
+        if (window == null)
+        {
+            ReplayWindow created = new ReplayWindow(counter);
+            window = replayWindows.putIfAbsent(senderId, created);
+            window = window == null ? created : window;
+        }
+        return window;
+    }
+    
+    public KeyRatchet getKeys()
+    {
+        return keys;
+    }
+    
+    /**
+     * Sets the ratchet over the network key that the keys for the channel 
+     * are derived from each epoch
+     * @param keys The ratchet over the network key
+     */
+    public void setKeys(KeyRatchet keys)
+    {
+        this.keys = keys;
+    }
+    
+    /**
+     * Records the time a new network key was sent, only keys newer than the
+     * current key are accepted so an old key cannot be replayed
+     * @param timestamp The time the new key was sent
+     * @return True if the key is newer than the current key
+     */
+    public boolean rekeyed(long timestamp)
+    {
+        long current;
+        
+        while (timestamp > (current = rekeyed.get()))
+        {
+            if (rekeyed.compareAndSet(current, timestamp))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public String getPassphrase()
+    {
+        return passphrase;
+    }
+    
+    public void setPassphrase(String passphrase)
+    {
+        this.passphrase = passphrase;
+    }
+}
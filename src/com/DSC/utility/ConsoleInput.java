@@ -0,0 +1,144 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads the console input on its own thread so that the event loop only waits
+ * for input and never polls. Lines that are already available when a line is
+ * read, such as lines pasted into the terminal, are queued together so they
+ * can be sent as a single message.
+ */
+public class ConsoleInput implements Runnable
+{
+    /* Queued in place of input once the end of the input is reached */
+    private static final List<String> END_OF_INPUT = Collections.emptyList();
+    
+    private final BufferedReader reader;
+    private final BlockingQueue<List<String>> input;
+    
+    /* Lines entered along with the last line returned, only used by the event loop */
+    private final LinkedList<String> pasted;
+    
+    
+    public ConsoleInput(InputStream in)
+    {
+        this.reader = new BufferedReader(new InputStreamReader(in));
+        this.input = new LinkedBlockingQueue<List<String>>();
+        this.pasted = new LinkedList<String>();
+    }
+    
+    
+    /**
+     * Starts the thread reading the console input
+     */
+    public void start()
+    {
+        Thread thread = new Thread(this, "ConsoleInput");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                /* Every line that can be read without blocking was entered together */
+                List<String> lines = new ArrayList<String>();
+                lines.add(line);
+                while (reader.ready() && (line = reader.readLine()) != null)
+                {
+                    lines.add(line);
+                }
+                input.put(lines);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            input.add(END_OF_INPUT);
+        }
+    }
+    
+    
+    /**
+     * Reads a line of input, waiting until a line is entered
+     * @return The line, or null if the end of the input has been reached
+     * @throws IOException If interrupted while waiting for input
+     */
+    public String readLine() throws IOException
+    {
+        if (pasted.isEmpty())
+        {
+            try
+            {
+                List<String> lines = input.take();
+                if (lines == END_OF_INPUT)
+                {
+                    input.add(END_OF_INPUT);
+                    return null;
+                }
+                pasted.addAll(lines);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for input");
+            }
+        }
+        return pasted.poll();
+    }
+    
+    
+    /**
+     * Returns the next line without removing it if it was entered along with
+     * the last line read, the next line is never waited for
+     * @return The next line, or null if the last line read was entered alone
+     */
+    public String peekPasted()
+    {
+        return pasted.peek();
+    }
+}
@@ -21,44 +21,16 @@
  */
 package com.DSC.utility;
 
-public class InputSymbol {
-
-    private boolean inputWait = false;
-    private String input = null;
-    
-    public synchronized void setInputWait() 
-    { 
-    	inputWait = false;
-    	notifyAll();
-    }
-    
-    public synchronized void setInputReady(String input) 
-    { 
-    	setInput(input);
-    	inputWait = true;
-    	notifyAll();
-    }
-    
-    public synchronized boolean getInputWait() 
-    { 
-    	return inputWait;
-    }
-
-	/**
-	 * @return the value
-	 */
-	public synchronized String getInput() {
-		return input;
-	}
-
-	/**
-	 * @param value the value to set
-	 */
-	private void setInput(String input) {
-		this.input = input;
-	}
-
-	public synchronized void resetInput() {
-		this.input = null;
-	}
+/**
+ * The state of the handshake with a member joining the channel, as seen by
+ * the member that authenticated them.
+ */
+public enum HandshakeState
+{
+    /* Authentication acknowledged, awaiting the key exchange request */
+    ACKNOWLEDGED,
+    /* The key exchange request has been verified and the network key is being sent */
+    SENDING_KEY,
+    /* The network key has been sent to the member */
+    KEY_SENT
 }
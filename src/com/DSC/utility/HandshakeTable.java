@@ -0,0 +1,207 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the handshake state of each member joining the channel by the 
+ * compressed encoding of their public key, so that any number of members can
+ * be joining at the same time. Each handshake expires if it does not progress
+ * within the timeout.
+ */
+public class HandshakeTable
+{
+    /* Matches the time a joining member waits for acknowledgement and the key */
+    public static final long DEFAULT_TIMEOUT = 30000;
+    
+    private final ConcurrentHashMap<ByteBuffer, Handshake> handshakes;
+    private final long timeout;
+    
+    
+    /**
+     * Creates a handshake table using the default timeout
+     */
+    public HandshakeTable()
+    {
+        this(DEFAULT_TIMEOUT);
+    }
+    
+    
+    /**
+     * Creates a handshake table
+     * @param timeout The time in milliseconds a handshake is kept in each state
+     */
+    public HandshakeTable(long timeout)
+    {
+        this.handshakes = new ConcurrentHashMap<ByteBuffer, Handshake>();
+        this.timeout = timeout;
+    }
+    
+    
+    /**
+     * Records that the member has been acknowledged and their key exchange
+     * request is expected, restarting any previous handshake with the member
+     * @param publicKey The compressed encoding of the public key of the member
+     */
+    public void acknowledged(byte[] publicKey)
+    {
+        long now = System.currentTimeMillis();
+        
+        expire(now);
+        handshakes.put(ByteBuffer.wrap(publicKey), new Handshake(HandshakeState.ACKNOWLEDGED, now + timeout));
+    }
+    
+    
+    /**
+     * Returns true if a key exchange request is expected from the member
+     * @param publicKey The compressed encoding of the public key of the member
+     */
+    public boolean isAwaitingKeyExchange(byte[] publicKey)
+    {
+        Handshake handshake = handshakes.get(ByteBuffer.wrap(publicKey));
+        
+        return handshake != null 
+                && handshake.getState() == HandshakeState.ACKNOWLEDGED 
+                && ! handshake.isExpired(System.currentTimeMillis());
+    }
+    
+    
+    /**
+     * Cancels the handshake with the member, when the acknowledgement could
+     * not be sent
+     * @param publicKey The compressed encoding of the public key of the member
+     */
+    public void cancel(byte[] publicKey)
+    {
+        handshakes.remove(ByteBuffer.wrap(publicKey));
+    }
+    
+    
+    /**
+     * Moves the handshake with the member from acknowledged to sending the 
+     * key, only one caller succeeds so the key is sent once per 
+     * acknowledgement
+     * @param publicKey The compressed encoding of the public key of the member
+     * @return True if the key should be sent to the member
+     */
+    public boolean sendingKey(byte[] publicKey)
+    {
+        return move(publicKey, HandshakeState.ACKNOWLEDGED, HandshakeState.SENDING_KEY);
+    }
+    
+    
+    /**
+     * Records that the key has been sent to the member, or returns the 
+     * handshake to acknowledged if the key could not be sent
+     * @param publicKey The compressed encoding of the public key of the member
+     * @param sent True if the key was sent
+     */
+    public void keySent(byte[] publicKey, boolean sent)
+    {
+        move(publicKey, HandshakeState.SENDING_KEY, sent ? HandshakeState.KEY_SENT : HandshakeState.ACKNOWLEDGED);
+    }
+    
+    
+    /**
+     * Returns the current state of the handshake with the member
+     * @param publicKey The compressed encoding of the public key of the member
+     * @return The handshake state, or null if there is no active handshake
+     */
+    public HandshakeState getState(byte[] publicKey)
+    {
+        Handshake handshake = handshakes.get(ByteBuffer.wrap(publicKey));
+        
+        if (handshake == null || handshake.isExpired(System.currentTimeMillis()))
+        {
+            return null;
+        }
+        return handshake.getState();
+    }
+    
+    
+    /**
+     * Moves the handshake with the member from one state to the next, unless
+     * the handshake is in another state or has expired
+     * @return True if the handshake was moved
+     */
+    private boolean move(byte[] publicKey, HandshakeState from, HandshakeState to)
+    {
+        long now = System.currentTimeMillis();
+        Handshake handshake = handshakes.get(ByteBuffer.wrap(publicKey));
+        
+        if (handshake == null 
+                || handshake.getState() != from
+                || handshake.isExpired(now))
+        {
+            return false;
+        }
+        
+        return handshakes.replace(ByteBuffer.wrap(publicKey), handshake, new Handshake(to, now + timeout));
+    }
+    
+    
+    /**
+     * Removes all of the handshakes that have expired
+     */
+    private void expire(long now)
+    {
+        Iterator<Map.Entry<ByteBuffer, Handshake>> it = handshakes.entrySet().iterator();
+        
+        while (it.hasNext())
+        {
+            if (it.next().getValue().isExpired(now))
+            {
+                it.remove();
+            }
+        }
+    }
+    
+    
+    /**
+     * The handshake state for a member and when it expires
+     */
+    private static class Handshake
+    {
+        private final HandshakeState state;
+        private final long deadline;
+        
+        public Handshake(HandshakeState state, long deadline)
+        {
+            this.state = state;
+            this.deadline = deadline;
+        }
+        
+        public HandshakeState getState()
+        {
+            return this.state;
+        }
+        
+        public boolean isExpired(long now)
+        {
+            return now > this.deadline;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.util.Arrays;
+
+import com.DSC.message.MessageCodec;
+
+/**
+ * The public keys blocked from the channel, unlike an address a key cannot 
+ * change when the member reconnects. Only a few keys are ever blocked, so the
+ * fingerprints of the keys are kept in an array that is copied when a key is
+ * added, checking a key is lock-free and allocates nothing.
+ */
+public class KeyBlacklist
+{
+    /* Pairs of fingerprints, with the key for each pair at half the index */
+    private volatile long[] fingerprints = new long[0];
+    private volatile byte[][] keys = new byte[0][];
+    
+    
+    /**
+     * Blocks the public key
+     * @param publicKey The compressed encoding of the public key
+     */
+    public synchronized void add(byte[] publicKey)
+    {
+        if (publicKey.length != MessageCodec.PUBLIC_KEY_SIZE || contains(publicKey, 0))
+        {
+            return;
+        }
+        
+        byte[][] keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+        keys[keys.length - 1] = publicKey.clone();
+        
+        long[] fingerprints = Arrays.copyOf(this.fingerprints, this.fingerprints.length + 2);
+        fingerprints[fingerprints.length - 2] = TrustedMembers.fingerprintHigh(publicKey, 0);
+        fingerprints[fingerprints.length - 1] = TrustedMembers.fingerprintLow(publicKey, 0);
+        
+        /* The keys are published first, a matching fingerprint always has its key */
+        this.keys = keys;
+        this.fingerprints = fingerprints;
+    }
+    
+    
+    /**
+     * Returns true if the public key in the buffer is blocked
+     * @param buf The buffer containing the compressed encoding of the key
+     * @param offset The offset of the key in the buffer
+     */
+    public boolean contains(byte[] buf, int offset)
+    {
+        long[] fingerprints = this.fingerprints;
+        
+        if (fingerprints.length == 0)
+        {
+            return false;
+        }
+        
+        long high = TrustedMembers.fingerprintHigh(buf, offset);
+        long low = TrustedMembers.fingerprintLow(buf, offset);
+        
+        for (int i = 0; i < fingerprints.length; i += 2)
+        {
+            if (fingerprints[i] == high && fingerprints[i + 1] == low
+                    && TrustedMembers.keyEquals(this.keys[i / 2], buf, offset))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Returns the number of keys blocked
+     */
+    public int size()
+    {
+        return this.keys.length;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.jgroups.Address;
+
+import com.DSC.crypto.PeerKey;
+
+/**
+ * An authentication request with a verified signature that is waiting for
+ * the user to decide whether to trust, reject, or ignore the sender.
+ */
+public class PendingRequest
+{
+    private final PeerKey peerKey;
+    private final Address src;
+    private final boolean combinedHandshake;
+    
+    /**
+     * 
+     * @param peerKey The public key of the member requesting access
+     * @param src The address of the member requesting access
+     * @param combinedHandshake True if the key is to be sent with the acknowledgement
+     */
+    public PendingRequest(PeerKey peerKey, Address src, boolean combinedHandshake)
+    {
+        this.peerKey = peerKey;
+        this.src = src;
+        this.combinedHandshake = combinedHandshake;
+    }
+    
+    public PeerKey getPeerKey()
+    {
+        return this.peerKey;
+    }
+    
+    public ECPublicKeyParameters getPublicKey()
+    {
+        return this.peerKey.getPublicKey();
+    }
+    
+    public Address getSrc()
+    {
+        return this.src;
+    }
+    
+    public boolean isCombinedHandshake()
+    {
+        return this.combinedHandshake;
+    }
+}
@@ -21,44 +21,26 @@
  */
 package com.DSC.utility;
 
-import java.io.BufferedReader;
-import java.util.concurrent.ConcurrentHashMap;
-
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.jgroups.Address;
-import org.jgroups.JChannel;
 import org.joda.time.format.DateTimeFormatter;
 
-import com.DSC.crypto.ISAACRandomGenerator;
-import com.google.common.collect.ConcurrentHashMultiset;
-
+/**
+ * The state of the console client, the state of each channel is kept by its
+ * ChannelSession
+ */
 public abstract class ProgramState
 {
-    /* Program message handling states */
-    public volatile static boolean AUTHENTICATION_REQUEST = false;
-    public volatile static boolean AUTHENTICATED = false;
-    public volatile static boolean KEY_EXCHANGE_REQUEST = false;
-    public volatile static boolean KEY_RECEIVED = false;
-    public volatile static boolean AUTHENTICATION_DECISION = false;
-    public volatile static boolean AUTHENTICATION_ACKNOWLEDGE = false;
-    
-    /* Channel */
-    public volatile static JChannel channel;
+    /* The channel the console is currently in */
+    public volatile static ChannelSession session;
     public volatile static String nick;
     
     /* Input handling */
-    public volatile static BufferedReader in;
-    public volatile static InputSymbol symbol = new InputSymbol();
+    public volatile static ConsoleInput in;
     
-    /* Channel security: trusted keys, blacklist, and network keys */
-    public volatile static ConcurrentHashMap<String, Address> trustedKeys;
-    public volatile static ConcurrentHashMultiset<Address> blacklist;
+    /* The member's identity, used for every channel */
     public volatile static ECPublicKeyParameters publicKey;
     public volatile static ECPrivateKeyParameters privateKey;
-    public volatile static byte[] symmetricKey;
-    public volatile static String passphrase;
-    public volatile static ISAACRandomGenerator IVEngine;
     
     /* Network time */
     public volatile static DateTimeFormatter fmt;
@@ -0,0 +1,162 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free sliding window of the message counters received from a sender,
+ * used to reject replayed messages. The window covers the last 1024 counters
+ * in 32 slots of 32 counters each. Each slot is a single word holding the
+ * block of counters it covers in the upper half and a bit for each counter
+ * in the lower half, so checking or marking a counter is a read or a
+ * compare and set of one word and never blocks or allocates.
+ */
+public class ReplayWindow
+{
+    /* The number of counters covered by the window */
+    public static final int WINDOW_SIZE = 1024;
+    
+    private static final int BLOCK_SHIFT = 5;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int SLOTS = WINDOW_SIZE / BLOCK_SIZE;
+    
+    private final AtomicLongArray slots;
+    private final AtomicLong highest;
+    
+    
+    /**
+     * Creates the window for a sender starting at the first counter received
+     * @param counter The first counter received from the sender
+     */
+    public ReplayWindow(long counter)
+    {
+        long block = counter >>> BLOCK_SHIFT;
+        
+        /* Every slot starts empty, covering a block before the window */
+        this.slots = new AtomicLongArray(SLOTS);
+        for (int i = 0; i < SLOTS; ++i)
+        {
+            this.slots.set(i, (block - SLOTS) << 32);
+        }
+        this.highest = new AtomicLong(block);
+    }
+    
+    
+    /**
+     * Returns true if the counter is too old to be checked by the window
+     * @param counter The counter of the message
+     */
+    public boolean isTooOld(long counter)
+    {
+        return (counter >>> BLOCK_SHIFT) + SLOTS <= highest.get();
+    }
+    
+    
+    /**
+     * Returns true if the counter has already been received
+     * @param counter The counter of the message
+     */
+    public boolean isReplayed(long counter)
+    {
+        long block = counter >>> BLOCK_SHIFT;
+        long word = slots.get((int) block & (SLOTS - 1));
+        
+        return (int) block == (int) (word >>> 32) && (word & bit(counter)) != 0;
+    }
+    
+    
+    /**
+     * Marks the counter as received, this is done once the message is 
+     * authenticated so that forged messages cannot use up counters
+     * @param counter The counter of the message
+     * @return True if the counter was marked, false if it has already been 
+     * received or is too old
+     */
+    public boolean mark(long counter)
+    {
+        long block = counter >>> BLOCK_SHIFT;
+        int slot = (int) block & (SLOTS - 1);
+        long bit = bit(counter);
+        
+        while (true)
+        {
+            if (block + SLOTS <= highest.get())
+            {
+                return false;
+            }
+            
+            long word = slots.get(slot);
+            int diff = (int) block - (int) (word >>> 32);
+            long update;
+            
+            if (diff == 0)
+            {
+                if ((word & bit) != 0)
+                {
+                    return false;
+                }
+                update = word | bit;
+            }
+            else if (diff > 0)
+            {
+                /* The slot moves forward to the newer block */
+                update = (block << 32) | bit;
+            }
+            else
+            {
+                /* The slot already covers a newer block */
+                return false;
+            }
+            
+            if (slots.compareAndSet(slot, word, update))
+            {
+                advance(block);
+                return true;
+            }
+        }
+    }
+    
+    
+    /**
+     * Slides the window forward to the block if it is newer
+     */
+    private void advance(long block)
+    {
+        long current;
+        
+        while (block > (current = highest.get()))
+        {
+            if (highest.compareAndSet(current, block))
+            {
+                return;
+            }
+        }
+    }
+    
+    
+    private static long bit(long counter)
+    {
+        return 1L << (counter & (BLOCK_SIZE - 1));
+    }
+}
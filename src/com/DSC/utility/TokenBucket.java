@@ -0,0 +1,111 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, tokens are added at a fixed rate up to the size
+ * of the bucket. The only state is the time at which the bucket will be full
+ * again, which is updated with compare and set, so taking a token never
+ * blocks or allocates.
+ */
+public class TokenBucket
+{
+    /* Budget for the handshake messages from each sender, per second */
+    public static final int CONTROL_RATE = Integer.getInteger("dsc.controlRate", 20);
+    public static final int CONTROL_BURST = Integer.getInteger("dsc.controlBurst", 50);
+    
+    /* Budget for the encrypted messages from each sender, per second */
+    public static final int DATA_RATE = Integer.getInteger("dsc.dataRate", 200);
+    public static final int DATA_BURST = Integer.getInteger("dsc.dataBurst", 500);
+    
+    private final long interval;
+    private final long capacity;
+    private final AtomicLong full;
+    
+    
+    /**
+     * Creates a full token bucket
+     * @param rate The tokens added per second
+     * @param burst The size of the bucket
+     */
+    public TokenBucket(int rate, int burst)
+    {
+        this.interval = TimeUnit.SECONDS.toNanos(1) / Math.max(rate, 1);
+        this.capacity = this.interval * Math.max(burst, 1);
+        this.full = new AtomicLong(System.nanoTime());
+    }
+    
+    
+    /**
+     * Creates a bucket with the budget for handshake messages
+     */
+    public static TokenBucket forControl()
+    {
+        return new TokenBucket(CONTROL_RATE, CONTROL_BURST);
+    }
+    
+    
+    /**
+     * Creates a bucket with the budget for encrypted messages
+     */
+    public static TokenBucket forData()
+    {
+        return new TokenBucket(DATA_RATE, DATA_BURST);
+    }
+    
+    
+    /**
+     * Takes a token from the bucket
+     * @param now The current time from System.nanoTime()
+     * @return True if a token was available
+     */
+    public boolean take(long now)
+    {
+        while (true)
+        {
+            long full = this.full.get();
+            long next = (full - now > 0 ? full : now) + interval;
+            
+            if (next - now > capacity)
+            {
+                return false;
+            }
+            if (this.full.compareAndSet(full, next))
+            {
+                return true;
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns true if the bucket is full, a full bucket holds no state
+     * @param now The current time from System.nanoTime()
+     */
+    public boolean isFull(long now)
+    {
+        return full.get() - now <= 0;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import org.jgroups.Address;
+
+import com.DSC.crypto.PeerKey;
+
+/**
+ * A trusted member of the channel, identified by their public key, along with
+ * the address the member was last seen at and when, and the budget for the
+ * handshake messages signed with the member's key.
+ */
+public class TrustedMember
+{
+    private final PeerKey peerKey;
+    private final long fingerprintHigh;
+    private final long fingerprintLow;
+    private volatile Address address;
+    private volatile long lastSeen;
+    private final TokenBucket controlBucket;
+    
+    /**
+     * 
+     * @param peerKey The public key of the member
+     * @param address The address of the member
+     */
+    public TrustedMember(PeerKey peerKey, Address address)
+    {
+        this.peerKey = peerKey;
+        this.fingerprintHigh = TrustedMembers.fingerprintHigh(peerKey.getEncoded(), 0);
+        this.fingerprintLow = TrustedMembers.fingerprintLow(peerKey.getEncoded(), 0);
+        this.address = address;
+        this.lastSeen = System.currentTimeMillis();
+        this.controlBucket = TokenBucket.forControl();
+    }
+    
+    
+    /**
+     * Records that a message was received from the member at the address
+     * @param address The address of the member
+     */
+    public void seen(Address address)
+    {
+        this.address = address;
+        this.lastSeen = System.currentTimeMillis();
+    }
+    
+    public PeerKey getPeerKey()
+    {
+        return this.peerKey;
+    }
+    
+    public Address getAddress()
+    {
+        return this.address;
+    }
+    
+    public long getLastSeen()
+    {
+        return this.lastSeen;
+    }
+    
+    public TokenBucket getControlBucket()
+    {
+        return this.controlBucket;
+    }
+    
+    long getFingerprintHigh()
+    {
+        return this.fingerprintHigh;
+    }
+    
+    long getFingerprintLow()
+    {
+        return this.fingerprintLow;
+    }
+}
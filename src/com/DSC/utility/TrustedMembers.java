@@ -0,0 +1,320 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jgroups.Address;
+
+import com.DSC.crypto.PeerKey;
+import com.DSC.message.MessageCodec;
+
+/**
+ * The trusted members of a channel, keyed directly on the compressed public
+ * key of each member. The x coordinate of a compressed key is already 
+ * uniformly distributed, so the fingerprint of a key is the first 128 bits of
+ * the x coordinate, matches are confirmed against the full key.
+ * 
+ * The table uses open addressing, lookups are lock-free and allocate nothing
+ * so membership can be checked for every message received. Members are only
+ * added when trusted, which is rare, so additions are synchronized and the
+ * table is kept at most half full so that every probe ends at an empty slot.
+ * 
+ * Members removed from the channel are rebuilt out of a copy of the table, 
+ * and their key ids are kept so that new network keys exclude them until 
+ * they are trusted again.
+ */
+public class TrustedMembers
+{
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /* The table is written before it is published, readers see every member added */
+    private volatile TrustedMember[] table;
+    private int size;
+    
+    /* The key ids of the members removed, oldest first */
+    private final Set<Long> removed;
+    
+    
+    public TrustedMembers()
+    {
+        this.table = new TrustedMember[INITIAL_CAPACITY];
+        this.removed = new LinkedHashSet<Long>();
+    }
+    
+    
+    /**
+     * Returns the trusted member with the public key
+     * @param publicKey The compressed encoding of the public key
+     * @return The member, or null if the key is not trusted
+     */
+    public TrustedMember get(byte[] publicKey)
+    {
+        if (publicKey == null || publicKey.length != MessageCodec.PUBLIC_KEY_SIZE)
+        {
+            return null;
+        }
+        return get(publicKey, 0);
+    }
+    
+    
+    /**
+     * Returns the trusted member with the public key in the buffer, so that
+     * members can be found before a message is decoded
+     * @param buf The buffer containing the compressed encoding of the key
+     * @param offset The offset of the key in the buffer
+     * @return The member, or null if the key is not trusted
+     */
+    public TrustedMember get(byte[] buf, int offset)
+    {
+        long high = fingerprintHigh(buf, offset);
+        long low = fingerprintLow(buf, offset);
+        TrustedMember[] tab = this.table;
+        int mask = tab.length - 1;
+        
+        for (int i = index(high, mask); ; i = (i + 1) & mask)
+        {
+            TrustedMember member = tab[i];
+            
+            if (member == null)
+            {
+                return null;
+            }
+            if (member.getFingerprintHigh() == high && member.getFingerprintLow() == low
+                    && keyEquals(member.getPeerKey().getEncoded(), buf, offset))
+            {
+                return member;
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns true if the public key belongs to a trusted member
+     * @param publicKey The compressed encoding of the public key
+     */
+    public boolean contains(byte[] publicKey)
+    {
+        return get(publicKey) != null;
+    }
+    
+    
+    /**
+     * Trusts the member with the public key, if the member is already trusted
+     * the existing member is returned
+     * @param peerKey The public key of the member
+     * @param address The address of the member
+     * @return The trusted member
+     */
+    public synchronized TrustedMember putIfAbsent(PeerKey peerKey, Address address)
+    {
+        TrustedMember member = get(peerKey.getEncoded());
+        
+        if (member != null)
+        {
+            return member;
+        }
+        
+        TrustedMember[] tab = this.table;
+        if (2 * (size + 1) > tab.length)
+        {
+            tab = new TrustedMember[2 * tab.length];
+            for (TrustedMember existing : this.table)
+            {
+                if (existing != null)
+                {
+                    insert(tab, existing);
+                }
+            }
+        }
+        
+        member = new TrustedMember(peerKey, address);
+        insert(tab, member);
+        ++size;
+        removed.remove(MessageCodec.getKeyId(peerKey.getEncoded()));
+        
+        /* Publish the table, the volatile write makes the new member visible */
+        this.table = tab;
+        return member;
+    }
+    
+    
+    /**
+     * Removes the member with the key id from the trusted members, the key id
+     * is kept even if the member is not trusted so that the member is 
+     * excluded from the new network keys sent
+     * @param keyId The key id of the member
+     * @return The member removed, or null if the member was not trusted
+     */
+    public synchronized TrustedMember remove(long keyId)
+    {
+        /* The oldest removal is forgotten once a rekey message cannot list them all */
+        removed.remove(keyId);
+        if (removed.size() == MessageCodec.MAX_REKEY_ENTRIES)
+        {
+            Iterator<Long> oldest = removed.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        removed.add(keyId);
+        
+        TrustedMember[] tab = new TrustedMember[this.table.length];
+        TrustedMember member = null;
+        for (TrustedMember existing : this.table)
+        {
+            if (existing == null)
+            {
+                continue;
+            }
+            if (member == null && MessageCodec.getKeyId(existing.getPeerKey().getEncoded()) == keyId)
+            {
+                member = existing;
+            }
+            else
+            {
+                insert(tab, existing);
+            }
+        }
+        
+        /* Publish the table without the member, lookups never see a broken probe sequence */
+        if (member != null)
+        {
+            --size;
+            this.table = tab;
+        }
+        return member;
+    }
+    
+    
+    /**
+     * Returns the key ids of the members removed that have not been trusted
+     * again
+     */
+    public synchronized long[] removed()
+    {
+        long[] keyIds = new long[removed.size()];
+        int i = 0;
+        
+        for (long keyId : removed)
+        {
+            keyIds[i++] = keyId;
+        }
+        return keyIds;
+    }
+    
+    
+    /**
+     * Returns the number of trusted members
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+    
+    
+    /**
+     * Returns a snapshot of the trusted members
+     */
+    public List<TrustedMember> members()
+    {
+        List<TrustedMember> members = new ArrayList<TrustedMember>();
+        
+        for (TrustedMember member : this.table)
+        {
+            if (member != null)
+            {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+    
+    
+    private static void insert(TrustedMember[] tab, TrustedMember member)
+    {
+        int mask = tab.length - 1;
+        int i = index(member.getFingerprintHigh(), mask);
+        
+        while (tab[i] != null)
+        {
+            i = (i + 1) & mask;
+        }
+        tab[i] = member;
+    }
+    
+    
+    private static int index(long fingerprint, int mask)
+    {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+    
+    
+    /**
+     * Returns the first 64 bits of the x coordinate of the compressed key
+     */
+    static long fingerprintHigh(byte[] buf, int offset)
+    {
+        return getLong(buf, offset + 1);
+    }
+    
+    
+    /**
+     * Returns the next 64 bits of the x coordinate of the compressed key
+     */
+    static long fingerprintLow(byte[] buf, int offset)
+    {
+        return getLong(buf, offset + 9);
+    }
+    
+    
+    /**
+     * Returns true if the key is the same as the key in the buffer
+     */
+    static boolean keyEquals(byte[] publicKey, byte[] buf, int offset)
+    {
+        for (int i = 0; i < publicKey.length; ++i)
+        {
+            if (publicKey[i] != buf[offset + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    
+    private static long getLong(byte[] bytes, int offset)
+    {
+        long value = 0;
+        
+        for (int i = offset; i < offset + 8; ++i)
+        {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Distributed Secure Channel
+ * A novel distributed cryptosystem based on the concepts of PGP and Bitcoin.
+ *
+ * Copyright (C) 2013, Jonathan Gillett, Joseph Heron, and Daniel Smullen
+ * All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.DSC.crypto;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.DSC.message.AuthRequest;
+
+/**
+ * The handshake flags of an authentication request are signed, so that a 
+ * request altered in transit fails verification.
+ */
+public class ECDSATest
+{
+    private static final String PASSPHRASE = "test";
+    
+    private ECKey key;
+    
+    
+    @Before
+    public void setUp()
+    {
+        key = new ECKey();
+        key.init();
+    }
+    
+    
+    @Test
+    public void authRequestVerifies()
+    {
+        BigInteger[] signature = ECDSA.signAuthRequest(key.getPrivate(), key.getPublic(), 
+                PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE);
+        
+        assertTrue(ECDSA.verifyAuthRequest(key.getPublic(), PASSPHRASE, 
+                AuthRequest.COMBINED_HANDSHAKE, signature));
+    }
+    
+    
+    @Test
+    public void flippedFlagFailsVerification()
+    {
+        BigInteger[] signature = ECDSA.signAuthRequest(key.getPrivate(), key.getPublic(), 
+                PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE);
+        
+        /* The combined handshake flag is cleared after the request is signed */
+        assertFalse(ECDSA.verifyAuthRequest(key.getPublic(), PASSPHRASE, (byte) 0, signature));
+    }
+    
+    
+    @Test
+    public void flippedFlagFailsBatchVerification()
+    {
+        BigInteger[] signature = ECDSA.signAuthRequest(key.getPrivate(), key.getPublic(), 
+                PASSPHRASE, (byte) 0);
+        
+        /* The combined handshake flag is set after the request is signed */
+        assertFalse(ECDSA.verify(Collections.singletonList(ECDSA.authRequest(key.getPublic(), 
+                PASSPHRASE, AuthRequest.COMBINED_HANDSHAKE, signature)))[0]);
+    }
+}